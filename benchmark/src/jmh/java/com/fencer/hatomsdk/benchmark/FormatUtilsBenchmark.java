@@ -0,0 +1,45 @@
+package com.fencer.hatomsdk.benchmark;
+
+import com.fencer.hatomsdk.FormatUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>抓图、录像文件名和错误码的格式化</p>
+ *
+ * @name FormatUtilsBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FormatUtilsBenchmark {
+
+    private final String cameraName = "camera";
+
+    private final String errorCode = "385875968";
+
+    private final String hexErrorCode = "0x17000000";
+
+    @Benchmark
+    public String fileName() {
+        return FormatUtils.getFileName(cameraName);
+    }
+
+    @Benchmark
+    public String convertToHexString() {
+        return FormatUtils.convertToHexString(errorCode);
+    }
+
+    @Benchmark
+    public String convertHexToHexString() {
+        return FormatUtils.convertToHexString(hexErrorCode);
+    }
+}
@@ -0,0 +1,96 @@
+package com.fencer.hatomsdk.benchmark;
+
+import com.fencer.hatomsdk.IsoTimeCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>回放开始和拖动时的时间格式化、解析</p>
+ * legacy开头的是CalendarUtil原来的实现：每次新建SimpleDateFormat，格式化后再插入时区的冒号
+ *
+ * @name IsoTimeCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IsoTimeCodecBenchmark {
+
+    private static final String yyyy_MM_dd_T_HH_mm_ss_SSSZ = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+    /**
+     * Android上"Z"可以解析"+08:00"，JVM上要用"XXX"才能解析同样的字符串
+     */
+    private static final String yyyy_MM_dd_T_HH_mm_ss_SSSXXX = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+
+    private final Calendar calendar = Calendar.getInstance();
+
+    private final StringBuilder builder = new StringBuilder(IsoTimeCodec.LENGTH);
+
+    private long time;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        IsoTimeCodec.refreshTimeZone();
+        time = 1_651_905_717_819L;
+        text = IsoTimeCodec.format(time);
+    }
+
+    /**
+     * 拖动时每次时间都不一样，但一般在同一天内
+     */
+    private long nextTime() {
+        time += 40;
+        return time;
+    }
+
+    @Benchmark
+    public String legacyFormat() {
+        calendar.setTimeInMillis(nextTime());
+        SimpleDateFormat sdf = new SimpleDateFormat(yyyy_MM_dd_T_HH_mm_ss_SSSZ, Locale.getDefault());
+        StringBuilder builder = new StringBuilder(sdf.format(calendar.getTime()));
+        builder.insert(26, ":");
+        return builder.toString();
+    }
+
+    @Benchmark
+    public String codecFormat() {
+        return IsoTimeCodec.format(nextTime());
+    }
+
+    @Benchmark
+    public int codecFormatToBuilder() {
+        builder.setLength(0);
+        IsoTimeCodec.format(nextTime(), builder);
+        return builder.length();
+    }
+
+    @Benchmark
+    public long legacyParse() throws ParseException {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(System.currentTimeMillis());
+        SimpleDateFormat sdf = new SimpleDateFormat(yyyy_MM_dd_T_HH_mm_ss_SSSXXX, Locale.getDefault());
+        calendar.setTime(sdf.parse(text));
+        return calendar.getTimeInMillis();
+    }
+
+    @Benchmark
+    public long codecParse() {
+        return IsoTimeCodec.parse(text);
+    }
+}
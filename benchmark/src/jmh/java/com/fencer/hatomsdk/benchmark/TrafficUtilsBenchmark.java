@@ -0,0 +1,65 @@
+package com.fencer.hatomsdk.benchmark;
+
+import com.fencer.hatomsdk.TrafficFormatter;
+import com.fencer.hatomsdk.TrafficUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>码率和流量的格式化</p>
+ * 每个窗口每秒刷新一次，16分屏时每秒调用16次，
+ * formatTo开头的是BitrateMeter每秒刷新时使用的方式，应该不分配内存
+ *
+ * @name TrafficUtilsBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TrafficUtilsBenchmark {
+
+    /**
+     * 覆盖KB/s的三种精度和MB/s
+     */
+    private final long[] diffValues = {3_000L, 50_000L, 500_000L, 3_000_000L};
+
+    /**
+     * 覆盖MB和GB
+     */
+    private final long[] totalValues = {300_000_000L, 3_000_000_000L};
+
+    private final char[] buffer = new char[TrafficFormatter.MAX_LENGTH];
+
+    private int index;
+
+    @Benchmark
+    public String currentTraffic() {
+        index++;
+        return TrafficUtils.getCurrentTraffic(diffValues[index & 3]);
+    }
+
+    @Benchmark
+    public String totalTraffic() {
+        index++;
+        return TrafficUtils.getTotalTraffic(totalValues[index & 1]);
+    }
+
+    @Benchmark
+    public int formatToCurrentTraffic() {
+        index++;
+        return TrafficFormatter.formatCurrentTraffic(diffValues[index & 3], buffer, 0);
+    }
+
+    @Benchmark
+    public int formatToTotalTraffic() {
+        index++;
+        return TrafficFormatter.formatTotalTraffic(totalValues[index & 1], buffer, 0);
+    }
+}
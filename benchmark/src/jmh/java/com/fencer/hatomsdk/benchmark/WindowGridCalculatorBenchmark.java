@@ -0,0 +1,92 @@
+package com.fencer.hatomsdk.benchmark;
+
+import com.fencer.hatomsdk.window.WindowGridCalculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>WindowGroup布局和拖动窗口时的网格计算</p>
+ * layout对应一次onLayout中所有窗口的计算，dragCenter对应拖动时每个MOVE事件的计算，
+ * 两者都不应该分配内存，gc.alloc.rate.norm应该接近0。
+ * 这里只覆盖不依赖Android的网格计算，WindowGroup真实的onLayout和拖动时的分配
+ * 由hatomsdk设备测试WindowGroupAllocationTest检查
+ *
+ * @name WindowGridCalculatorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WindowGridCalculatorBenchmark {
+
+    /**
+     * 分屏模式，每行每列的窗口数
+     */
+    @Param({"2", "4"})
+    public int windowMode;
+
+    /**
+     * 窗口总数
+     */
+    @Param({"16", "64"})
+    public int windowCount;
+
+    private final WindowGridCalculator grid = new WindowGridCalculator();
+
+    private int groupWidth = 1080;
+
+    @Setup
+    public void setup() {
+        grid.setWindowMode(windowMode);
+        grid.setGroupSize(groupWidth, 810);
+    }
+
+    @Benchmark
+    public void layout(Blackhole blackhole) {
+        int itemWidth = grid.getItemWidth();
+        int itemHeight = grid.getItemHeight();
+        for (int serial = 0; serial < windowCount; serial++) {
+            int row = grid.rowOf(serial);
+            int column = grid.columnOf(serial);
+            int screen = grid.screenOf(serial);
+            int itemLeft = grid.itemLeft(0, screen, column);
+            int itemTop = grid.itemTop(0, row);
+            int pageLeft = grid.itemLeftInPage(0, column);
+            blackhole.consume(itemLeft + itemWidth);
+            blackhole.consume(itemTop + itemHeight);
+            blackhole.consume(pageLeft);
+        }
+        blackhole.consume(grid.screenCount(windowCount));
+    }
+
+    @Benchmark
+    public void dragCenter(Blackhole blackhole) {
+        int itemWidth = grid.getItemWidth();
+        int itemHeight = grid.getItemHeight();
+        for (int serial = 0; serial < windowCount; serial++) {
+            int screen = grid.screenOf(serial);
+            int viewLeft = grid.itemLeft(0, screen, grid.columnOf(serial));
+            int viewTop = grid.itemTop(0, grid.rowOf(serial));
+            blackhole.consume(grid.centerXInPage(viewLeft, itemWidth, screen));
+            blackhole.consume(grid.centerY(viewTop, itemHeight));
+        }
+    }
+
+    @Benchmark
+    public int resize() {
+        //旋转屏幕时容器大小变化，重新计算窗口宽高
+        groupWidth = groupWidth == 1080 ? 1920 : 1080;
+        grid.setGroupSize(groupWidth, 810);
+        return grid.getItemWidth();
+    }
+}
@@ -0,0 +1,135 @@
+package com.fencer.hatomsdk.window
+
+import android.os.Debug
+import android.os.SystemClock
+import android.view.ContextThemeWrapper
+import android.view.MotionEvent
+import android.view.View
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+
+/**
+ * 64个窗口时，WindowGroup每次onLayout和拖动窗口时每个MOVE事件都不应该分配内存。
+ * 用Debug的线程分配计数统计主线程上的分配次数，需要在设备上运行
+ */
+@RunWith(AndroidJUnit4::class)
+class WindowGroupAllocationTest {
+
+    companion object {
+        private const val WINDOW_COUNT = 64
+
+        private const val WIDTH = 1080
+
+        private const val HEIGHT = 810
+
+        /*预热次数，第一次布局会创建各窗口的viewModel*/
+        private const val WARM_UP = 3
+
+        private const val ROUNDS = 50
+
+        /*拖动的窗口，4x4分屏第二行第二列，不靠近左右边缘*/
+        private const val DRAG_WINDOW = 5
+
+        private const val DRAG_STEP = 20f
+
+        /*超过WindowGroup的长按时间*/
+        private const val LONG_PRESS_MS = 400L
+    }
+
+    private val instrumentation = InstrumentationRegistry.getInstrumentation()
+
+    private lateinit var group: WindowGroup
+
+    @Before
+    fun setUp() {
+        instrumentation.runOnMainSync {
+            val context = ContextThemeWrapper(instrumentation.targetContext, androidx.appcompat.R.style.Theme_AppCompat)
+            group = WindowGroup(context)
+            group.initAdapter()
+            val adapter = group.windowGroupAdapter
+            adapter.setDefaultSupportMaxWindowCount(WINDOW_COUNT)
+            adapter.setCurrentNeedWindowCount(WINDOW_COUNT)
+            adapter.notifyDataSetChanged()
+            adapter.setWindowMode(WindowGroup.WINDOW_MODE_SIXTEEN)
+            group.measure(
+                View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+            )
+            group.layout(0, 0, WIDTH, group.measuredHeight)
+        }
+    }
+
+    @Test
+    fun layoutDoesNotAllocate() {
+        instrumentation.runOnMainSync {
+            assertEquals(WINDOW_COUNT, group.windowGroupAdapter.windowItemStructAllList.size)
+            val bottom = group.measuredHeight
+            repeat(WARM_UP) {
+                group.onLayout(false, 0, 0, WIDTH, bottom)
+            }
+            val count = countAllocations {
+                repeat(ROUNDS) {
+                    group.onLayout(false, 0, 0, WIDTH, bottom)
+                }
+            }
+            assertEquals(0, count)
+        }
+    }
+
+    @Test
+    fun dragMoveDoesNotAllocate() {
+        instrumentation.runOnMainSync {
+            val target = group.windowGroupAdapter.windowItemStructAllList[DRAG_WINDOW]
+            group.setCurrentWindowItem(target)
+            val x = (target.left + target.right) / 2f
+            val y = (target.top + target.bottom) / 2f
+            //事件对象提前创建，不算在拖动的分配里
+            val downTime = SystemClock.uptimeMillis()
+            val down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0)
+            val press = MotionEvent.obtain(downTime, downTime + LONG_PRESS_MS, MotionEvent.ACTION_MOVE, x + 1, y, 0)
+            val moves = Array(ROUNDS + 1) { i ->
+                val offset = if (i % 2 == 0) DRAG_STEP else -DRAG_STEP
+                MotionEvent.obtain(
+                    downTime, downTime + LONG_PRESS_MS + i + 1, MotionEvent.ACTION_MOVE, x + offset, y + offset, 0
+                )
+            }
+            val up = MotionEvent.obtain(downTime, downTime + LONG_PRESS_MS + ROUNDS + 2, MotionEvent.ACTION_UP, x, y, 0)
+            try {
+                group.onTouchEvent(down)
+                //按住不动超过长按时间后进入拖动，开始拖动时的缩放动画不算在内
+                group.onTouchEvent(press)
+                assertEquals(WindowGroup.LONG, group.clickMode)
+                group.onTouchEvent(moves[0])
+                val count = countAllocations {
+                    for (i in 1 until moves.size) {
+                        group.onTouchEvent(moves[i])
+                    }
+                }
+                group.onTouchEvent(up)
+                assertEquals(0, count)
+            } finally {
+                down.recycle()
+                press.recycle()
+                moves.forEach { it.recycle() }
+                up.recycle()
+            }
+        }
+    }
+
+    @Suppress("DEPRECATION")
+    private inline fun countAllocations(block: () -> Unit): Int {
+        Debug.resetThreadAllocCount()
+        Debug.startAllocCounting()
+        try {
+            block()
+        } finally {
+            Debug.stopAllocCounting()
+        }
+        return Debug.getThreadAllocCount()
+    }
+}
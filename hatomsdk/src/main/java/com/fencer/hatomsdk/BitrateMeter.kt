@@ -0,0 +1,245 @@
+package com.fencer.hatomsdk
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+
+/**
+ * <p> 码率统计 </p>
+ * 所有正在播放的窗口共用PlayStatusPoller的定时器，每个周期在主线程读取一次各播放器的总流量，
+ * 计算每个窗口和所有窗口合计的实时、平滑、峰值码率，结果直接格式化到复用的字符数组，
+ * 可以用TextView.setText(char[], int, int)显示，刷新时不创建对象
+ */
+object BitrateMeter {
+
+    /**
+     * 总流量来源
+     */
+    fun interface TrafficSource {
+        /**
+         * 开始播放以来的总字节数
+         */
+        fun getTotalTraffic(): Long
+    }
+
+    /**
+     * 每个周期所有窗口采样完成后在主线程回调
+     */
+    fun interface Listener {
+        fun onBitrateUpdated()
+    }
+
+    /**
+     * 码率数据，单位都是字节，文本在每次采样后更新
+     */
+    class Stats internal constructor() {
+        /*最近一个周期的码率，字节/秒*/
+        var bytesPerSecond = 0L
+            private set
+
+        /*平滑后的码率，字节/秒*/
+        var averageBytesPerSecond = 0L
+            private set
+
+        /*峰值码率，字节/秒*/
+        var peakBytesPerSecond = 0L
+            private set
+
+        /*总流量*/
+        var totalBytes = 0L
+            private set
+
+        /*最近一个周期的码率文本，例如"512KB/s"*/
+        val currentText = CharArray(TrafficFormatter.MAX_LENGTH)
+        var currentTextLength = 0
+            private set
+
+        /*平滑后的码率文本*/
+        val averageText = CharArray(TrafficFormatter.MAX_LENGTH)
+        var averageTextLength = 0
+            private set
+
+        /*峰值码率文本*/
+        val peakText = CharArray(TrafficFormatter.MAX_LENGTH)
+        var peakTextLength = 0
+            private set
+
+        /*总流量文本，例如"12.34MB"*/
+        val totalText = CharArray(TrafficFormatter.MAX_LENGTH)
+        var totalTextLength = 0
+            private set
+
+        private var hasAverage = false
+
+        internal fun update(bytesPerSecond: Long, totalBytes: Long) {
+            this.bytesPerSecond = bytesPerSecond
+            this.totalBytes = totalBytes
+            averageBytesPerSecond = if (hasAverage) {
+                (averageBytesPerSecond + smoothing * (bytesPerSecond - averageBytesPerSecond)).toLong()
+            } else {
+                bytesPerSecond
+            }
+            hasAverage = true
+            if (bytesPerSecond > peakBytesPerSecond) {
+                peakBytesPerSecond = bytesPerSecond
+            }
+            currentTextLength = TrafficFormatter.formatCurrentTraffic(bytesPerSecond, currentText, 0)
+            averageTextLength = TrafficFormatter.formatCurrentTraffic(averageBytesPerSecond, averageText, 0)
+            peakTextLength = TrafficFormatter.formatCurrentTraffic(peakBytesPerSecond, peakText, 0)
+            totalTextLength = TrafficFormatter.formatTotalTraffic(totalBytes, totalText, 0)
+        }
+
+        internal fun reset() {
+            bytesPerSecond = 0L
+            averageBytesPerSecond = 0L
+            peakBytesPerSecond = 0L
+            totalBytes = 0L
+            currentTextLength = 0
+            averageTextLength = 0
+            peakTextLength = 0
+            totalTextLength = 0
+            hasAverage = false
+        }
+    }
+
+    /**
+     * 单个窗口的码率
+     */
+    class Channel internal constructor(internal val source: TrafficSource) {
+
+        val stats = Stats()
+
+        /*上一次采样的总流量和时间，小于0表示还没有采样*/
+        private var lastTotal = -1L
+        private var lastTime = 0L
+
+        /**
+         * 采样一次，返回是否算出了码率
+         */
+        internal fun sample(now: Long): Boolean {
+            val total = source.getTotalTraffic()
+            val elapsed = now - lastTime
+            if (lastTotal < 0 || total < lastTotal || elapsed <= 0) {
+                //第一次采样或者重新开始播放，只记录基准
+                lastTotal = total
+                lastTime = now
+                return false
+            }
+            val bytesPerSecond = (total - lastTotal) * 1000 / elapsed
+            lastTotal = total
+            lastTime = now
+            stats.update(bytesPerSecond, total)
+            return true
+        }
+    }
+
+    /**
+     * 采样间隔，单位毫秒，实际采样对齐到PlayStatusPoller的轮询周期
+     */
+    @JvmStatic
+    var intervalMs = 1_000L
+        set(value) {
+            field = value.coerceAtLeast(100L)
+        }
+
+    /**
+     * 平滑系数，越大越接近实时码率
+     */
+    @JvmStatic
+    var smoothing = 0.3
+        set(value) {
+            field = value.coerceIn(0.01, 1.0)
+        }
+
+    /**
+     * 所有窗口合计的码率
+     */
+    @JvmStatic
+    val aggregate = Stats()
+
+    private val channels = ArrayList<Channel>()
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    /**
+     * 开始统计，可以在任意线程调用
+     *
+     * @return 用于读取码率的通道，停止统计前一直有效
+     */
+    @JvmStatic
+    fun register(source: TrafficSource): Channel {
+        val channel: Channel
+        synchronized(channels) {
+            for (i in channels.indices) {
+                if (channels[i].source === source) {
+                    return channels[i]
+                }
+            }
+            channel = Channel(source)
+            channels.add(channel)
+        }
+        PlayStatusPoller.wake()
+        return channel
+    }
+
+    /**
+     * 停止统计，可以在任意线程调用
+     */
+    @JvmStatic
+    fun unregister(source: TrafficSource) {
+        synchronized(channels) {
+            for (i in channels.indices.reversed()) {
+                if (channels[i].source === source) {
+                    channels.removeAt(i)
+                }
+            }
+        }
+    }
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * 是否有窗口在统计
+     */
+    internal fun isActive(): Boolean {
+        synchronized(channels) {
+            return channels.isNotEmpty()
+        }
+    }
+
+    /**
+     * 采样所有窗口，由PlayStatusPoller在主线程按采样间隔调用
+     */
+    internal fun tick(now: Long) {
+        var sampled = false
+        var bytesPerSecond = 0L
+        var totalBytes = 0L
+        synchronized(channels) {
+            if (channels.isEmpty()) {
+                aggregate.reset()
+                return
+            }
+            for (i in channels.indices) {
+                val channel = channels[i]
+                if (channel.sample(now)) {
+                    sampled = true
+                }
+                bytesPerSecond += channel.stats.bytesPerSecond
+                totalBytes += channel.stats.totalBytes
+            }
+        }
+        if (sampled) {
+            aggregate.update(bytesPerSecond, totalBytes)
+            for (listener in listeners) {
+                listener.onBitrateUpdated()
+            }
+        }
+    }
+}
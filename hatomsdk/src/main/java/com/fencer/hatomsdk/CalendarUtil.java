@@ -12,10 +12,8 @@ import android.util.Log;
 
 import com.hikvision.hpsclient.AbsTime;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.Locale;
 
 
@@ -23,8 +21,6 @@ public class CalendarUtil {
 
     private static final String TAG = "CalendarUtil";
 
-    private static final String yyyy_MM_dd_T_HH_mm_ss_SSSZ = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
-    private static final String yyyy_MM_dd_T_HH_mm_ssZ = "yyyy-MM-dd'T'HH:mm:ssZ";
     private static final String yyyy_MM_dd_HH_mm_ss = "yyyy-MM-dd HH:mm:ss";
 
     private CalendarUtil() {
@@ -85,23 +81,12 @@ public class CalendarUtil {
             return calendar;
         }
 
-        SimpleDateFormat sdf = new SimpleDateFormat(yyyy_MM_dd_T_HH_mm_ss_SSSZ, Locale.getDefault());
         try {
-            Date date = sdf.parse(formatTime);
-            calendar.setTime(date);
-            return calendar;
-        } catch (ParseException e) {
+            calendar.setTimeInMillis(IsoTimeCodec.parse(formatTime));
+        } catch (IllegalArgumentException e) {
             Log.e(TAG, "convertToCalendar : The time format not 2018-05-07T14:41:57.819+03:00");
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(yyyy_MM_dd_T_HH_mm_ssZ, Locale.getDefault());
-            try {
-                Date date = simpleDateFormat.parse(formatTime);
-                calendar.setTime(date);
-                return calendar;
-            } catch (ParseException pw) {
-                Log.e(TAG, "convertToCalendar : The time format not 2018-05-07T14:41:57+03:00");
-                return calendar;
-            }
         }
+        return calendar;
     }
 
 
@@ -116,10 +101,18 @@ public class CalendarUtil {
             Log.e(TAG, "convertToString : The calender time is null");
             return "";
         }
-        SimpleDateFormat sdf = new SimpleDateFormat(yyyy_MM_dd_T_HH_mm_ss_SSSZ, Locale.getDefault());
-        StringBuilder builder = new StringBuilder(sdf.format(calender.getTime()));
-        builder.insert(26, ":");
-        return builder.toString();
+        return IsoTimeCodec.format(calender.getTimeInMillis());
+    }
+
+
+    /**
+     * 将毫秒时间格式化为"2018-05-07T14:41:57.819+03:00",转换为手机设备所在时区
+     *
+     * @param time 毫秒时间
+     * @return 格式化时间字符串
+     */
+    public static String longToyyyy_MM_dd_T_HH_mm_SSSZ(long time) {
+        return IsoTimeCodec.format(time);
     }
 
 
@@ -164,8 +157,16 @@ public class CalendarUtil {
      * @return long型
      */
     public static long yyyy_MM_dd_T_HH_mm_SSSZToLong(String formatTime) {
-        Calendar calendar = yyyy_MM_dd_T_HH_mm_SSSZToCalendar(formatTime);
-        return calendar.getTimeInMillis();
+        if (TextUtils.isEmpty(formatTime)) {
+            Log.e(TAG, "convertToLong : The formatting time is null");
+            return System.currentTimeMillis();
+        }
+        try {
+            return IsoTimeCodec.parse(formatTime);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "convertToLong : The time format not 2018-05-07T14:41:57.819+03:00");
+            return System.currentTimeMillis();
+        }
     }
 
     /**
@@ -0,0 +1,338 @@
+package com.fencer.hatomsdk
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.blankj.utilcode.util.Utils
+import com.fencer.hatomsdk.window.WindowItemView
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * 抓图结果
+ */
+data class CaptureResult(
+    /*抓图文件*/
+    val path: String,
+    /*缩略图文件，生成失败时为null*/
+    val thumbnailPath: String?,
+    /*原图宽度*/
+    val width: Int,
+    /*原图高度*/
+    val height: Int,
+    /*抓图时画面的OSD时间，获取不到时小于等于0*/
+    val osdTime: Long = 0L
+)
+
+
+/**
+ * 整屏抓图中一个窗口的结果
+ */
+data class WallCaptureItem(
+    /*窗口序号*/
+    val window: Int,
+    /*监控点编号，直接按地址播放时为空*/
+    val camera: String,
+    val result: CaptureResult
+)
+
+
+/**
+ * 整屏抓图结果
+ */
+data class WallCaptureResult(
+    /*记录所有窗口抓图的清单文件，没有抓到图或者写入失败时为null*/
+    val manifestPath: String?,
+    /*抓图成功的窗口，按窗口序号排序*/
+    val items: List<WallCaptureItem>
+)
+
+
+/**
+ * <p> 抓图流水线 </p>
+ * 播放器在命令通道中把当前画面抓到内存里，写原图和生成缩略图放到后台线程同时进行，
+ * 两个都完成后在主线程回调。主线程只负责提交，16分屏连续抓图也不会卡住界面
+ */
+object CapturePipeline {
+
+    private const val TAG = "CapturePipeline"
+
+    /*整屏抓图线程空闲多久后结束*/
+    private const val BURST_KEEP_ALIVE_SEC = 5L
+
+    /*整屏抓图最多同时抓图的窗口数*/
+    private val BURST_THREAD_COUNT = Runtime.getRuntime().availableProcessors().coerceAtLeast(2)
+
+    /**
+     * 抓图回调，在主线程回调
+     */
+    fun interface Callback {
+        /**
+         * @param result 抓图结果，抓图或者写文件失败时为null
+         */
+        fun onCaptured(result: CaptureResult?)
+    }
+
+    /**
+     * 整屏抓图回调，在主线程回调
+     */
+    fun interface WallCallback {
+        fun onWallCaptured(result: WallCaptureResult)
+    }
+
+    /**
+     * 缩略图的最大宽度，按原图比例缩放
+     */
+    @JvmStatic
+    @Volatile
+    var thumbnailWidth = 320
+
+    /**
+     * 缩略图的JPEG质量
+     */
+    @JvmStatic
+    @Volatile
+    var thumbnailQuality = 80
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * 所有整屏抓图共用，线程在用到时才创建，窗口比CPU核数少时只创建窗口数个线程，
+     * 连续整屏抓图也不会重复创建线程，空闲一段时间后自动结束
+     */
+    private val burstExecutor by lazy {
+        ThreadPoolExecutor(
+            BURST_THREAD_COUNT, BURST_THREAD_COUNT, BURST_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            object : ThreadFactory {
+                private val count = AtomicInteger()
+                override fun newThread(r: Runnable): Thread {
+                    return Thread(r, "hatom-capture-burst-${count.incrementAndGet()}")
+                }
+            }
+        ).apply {
+            allowCoreThreadTimeOut(true)
+        }
+    }
+
+    private val executor = ThreadPoolExecutor(
+        2, 2, 30L, TimeUnit.SECONDS,
+        LinkedBlockingQueue(),
+        object : ThreadFactory {
+            private val count = AtomicInteger()
+            override fun newThread(r: Runnable): Thread {
+                return Thread(r, "hatom-capture-${count.incrementAndGet()}")
+            }
+        }
+    ).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * 保存内存中的抓图，原图和缩略图分别在后台线程写入
+     *
+     * @param jpeg     JPEG数据，提交后不能再修改
+     * @param length   有效数据长度
+     * @param cacheKey 不为null时缩略图同时放进FrameCache
+     */
+    internal fun save(
+        jpeg: ByteArray,
+        length: Int,
+        width: Int,
+        height: Int,
+        osdTime: Long,
+        path: String,
+        cacheKey: String?,
+        callback: Callback?
+    ) {
+        val thumbnailPath = MyUtils.getCaptureImageThumbnailPath(path)
+        val remain = AtomicInteger(2)
+        var saved = false
+        var thumbnailSaved = false
+        val finish = Runnable {
+            if (remain.decrementAndGet() == 0) {
+                val result = if (saved) {
+                    CaptureResult(path, if (thumbnailSaved) thumbnailPath else null, width, height, osdTime)
+                } else {
+                    null
+                }
+                mainHandler.post { callback?.onCaptured(result) }
+            }
+        }
+        executor.execute {
+            saved = writeImage(jpeg, length, path)
+            finish.run()
+        }
+        executor.execute {
+            thumbnailSaved = writeThumbnail(jpeg, length, thumbnailPath, cacheKey)
+            finish.run()
+        }
+    }
+
+    /**
+     * 同时抓取所有正在播放的窗口，每个窗口在自己的命令通道中排队，轮到抓图时在整屏抓图的线程池中执行，
+     * 最多按CPU核数个窗口同时抓图，不受命令通道共享线程池大小的限制；
+     * 全部完成后写一个清单文件，记录每张图的窗口、监控点和OSD时间，用于按时间对齐。
+     * 需要在主线程调用
+     */
+    @JvmStatic
+    fun captureAll(windows: List<WindowItemView>, callback: WallCallback?) {
+        val targets = windows.filterIsInstance<PlayWindowView>().filter { it.getPlayStatus() == PlayStatus.PLAYING }
+        if (targets.isEmpty()) {
+            mainHandler.post { callback?.onWallCaptured(WallCaptureResult(null, emptyList())) }
+            return
+        }
+        val captureTime = System.currentTimeMillis()
+        val items = ArrayList<WallCaptureItem>(targets.size)
+        var remain = targets.size
+        for (window in targets) {
+            val serial = window.windowSerial
+            val camera = window.getStreamRequest()?.cameraId ?: ""
+            //回调都在主线程，不需要加锁
+            window.executeCapture({ result ->
+                if (result != null) {
+                    items.add(WallCaptureItem(serial, camera, result))
+                }
+                if (--remain == 0) {
+                    items.sortBy { it.window }
+                    writeManifest(captureTime, items, callback)
+                }
+            }, burstExecutor)
+        }
+    }
+
+    private fun writeManifest(captureTime: Long, items: List<WallCaptureItem>, callback: WallCallback?) {
+        if (items.isEmpty()) {
+            callback?.onWallCaptured(WallCaptureResult(null, items))
+            return
+        }
+        val path = MyUtils.getCaptureManifestPath(Utils.getApp())
+        executor.execute {
+            val saved = try {
+                FileOutputStream(path).use { it.write(buildManifest(captureTime, items).toByteArray()) }
+                true
+            } catch (e: IOException) {
+                Log.e(TAG, "write $path failed", e)
+                false
+            } catch (e: JSONException) {
+                Log.e(TAG, "build manifest failed", e)
+                false
+            }
+            mainHandler.post { callback?.onWallCaptured(WallCaptureResult(if (saved) path else null, items)) }
+        }
+    }
+
+    /**
+     * osdSpreadMs是各窗口OSD时间的最大差值，可以用来判断这一组图是否足够同步
+     */
+    private fun buildManifest(captureTime: Long, items: List<WallCaptureItem>): String {
+        val windows = JSONArray()
+        var minOsd = Long.MAX_VALUE
+        var maxOsd = Long.MIN_VALUE
+        for (item in items) {
+            val result = item.result
+            windows.put(
+                JSONObject()
+                    .put("window", item.window)
+                    .put("camera", item.camera)
+                    .put("path", result.path)
+                    .put("thumbnail", result.thumbnailPath ?: "")
+                    .put("width", result.width)
+                    .put("height", result.height)
+                    .put("osdTime", result.osdTime)
+            )
+            if (result.osdTime > 0) {
+                minOsd = minOf(minOsd, result.osdTime)
+                maxOsd = maxOf(maxOsd, result.osdTime)
+            }
+        }
+        return JSONObject()
+            .put("captureTime", captureTime)
+            .put("osdSpreadMs", if (maxOsd >= minOsd) maxOsd - minOsd else -1L)
+            .put("windows", windows)
+            .toString(2)
+    }
+
+    /**
+     * 抓图失败，在主线程回调
+     */
+    internal fun fail(callback: Callback?) {
+        if (callback != null) {
+            mainHandler.post { callback.onCaptured(null) }
+        }
+    }
+
+    private fun writeImage(jpeg: ByteArray, length: Int, path: String): Boolean {
+        return try {
+            FileOutputStream(path).use { it.write(jpeg, 0, length) }
+            true
+        } catch (e: IOException) {
+            Log.e(TAG, "write $path failed", e)
+            File(path).delete()
+            false
+        }
+    }
+
+    /**
+     * 解码时直接按2的倍数缩小，不用先解出整张原图
+     */
+    private fun writeThumbnail(jpeg: ByteArray, length: Int, path: String, cacheKey: String?): Boolean {
+        val options = BitmapFactory.Options()
+        options.inJustDecodeBounds = true
+        BitmapFactory.decodeByteArray(jpeg, 0, length, options)
+        val width = options.outWidth
+        if (width <= 0) {
+            return false
+        }
+        var sampleSize = 1
+        while (width / (sampleSize * 2) >= thumbnailWidth) {
+            sampleSize *= 2
+        }
+        options.inJustDecodeBounds = false
+        options.inSampleSize = sampleSize
+        val sampled = BitmapFactory.decodeByteArray(jpeg, 0, length, options) ?: return false
+        val thumbnail = if (sampled.width > thumbnailWidth) {
+            val height = sampled.height * thumbnailWidth / sampled.width
+            Bitmap.createScaledBitmap(sampled, thumbnailWidth, height, true).also {
+                if (it !== sampled) {
+                    sampled.recycle()
+                }
+            }
+        } else {
+            sampled
+        }
+        //压缩一次，同时写缩略图文件和画面缓存
+        val bytes = ByteArrayOutputStream()
+        if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, thumbnailQuality, bytes)) {
+            thumbnail.recycle()
+            return false
+        }
+        val data = bytes.toByteArray()
+        if (cacheKey != null) {
+            FrameCache.put(cacheKey, thumbnail, data)
+        } else {
+            thumbnail.recycle()
+        }
+        return try {
+            FileOutputStream(path).use { it.write(data) }
+            true
+        } catch (e: IOException) {
+            Log.e(TAG, "write $path failed", e)
+            File(path).delete()
+            false
+        }
+    }
+}
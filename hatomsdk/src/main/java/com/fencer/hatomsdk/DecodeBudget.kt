@@ -0,0 +1,208 @@
+package com.fencer.hatomsdk
+
+import android.media.MediaCodecList
+import android.os.Build
+import android.util.Log
+
+
+/**
+ * 解码资源分配结果
+ */
+data class DecodeGrant(
+    /*是否使用硬解码*/
+    val hardDecode: Boolean,
+    /*软解码线程数，硬解下不生效；0表示预算已经用完，播放库按最少的线程解码*/
+    val decodeThreadNum: Int,
+    /*期待帧率，小于等于0表示不限制*/
+    val expectedFrameRate: Float
+)
+
+
+/**
+ * <p> 全局解码预算 </p>
+ * 根据设备硬解码器数量和CPU核数，统一给所有播放窗口分配硬解名额和软解线程数，
+ * 分出去的线程总数不超过decodeThreadBudget；预算用完后的窗口不再分配线程，并降低期待帧率，
+ * 避免16分屏软解时把CPU压垮
+ */
+object DecodeBudget {
+
+    private const val TAG = "DecodeBudget"
+
+    private const val MIME_AVC = "video/avc"
+
+    /*获取不到硬解码器实例数时的默认值*/
+    private const val DEFAULT_HARDWARE_SLOTS = 4
+
+    /*软解线程数上限，播放库支持1-8*/
+    private const val MAX_DECODE_THREAD = 8
+
+    /**
+     * 预算变化回调，在调用预算方法的线程回调，回调时已经释放了预算的锁
+     */
+    fun interface Listener {
+        fun onGrantChanged(grant: DecodeGrant)
+    }
+
+    private class Entry(
+        /*硬解名额在申请时确定，播放中不会改变解码方式*/
+        val hardDecode: Boolean,
+        var focused: Boolean,
+        val listener: Listener?
+    ) {
+        var grant: DecodeGrant? = null
+    }
+
+    private val entries = LinkedHashMap<Any, Entry>()
+
+    /**
+     * 硬解码器名额，默认读取设备支持的H264硬解实例数
+     */
+    @JvmStatic
+    var hardwareSlots: Int = queryHardwareSlots()
+
+    /**
+     * 所有软解窗口共用的解码线程总数，默认等于CPU核数
+     */
+    @JvmStatic
+    var decodeThreadBudget: Int = Runtime.getRuntime().availableProcessors()
+
+    /**
+     * 预算用完后没有分到线程的窗口的期待帧率
+     */
+    @JvmStatic
+    var throttledFrameRate: Float = 12.5f
+
+    /**
+     * 窗口没有要求硬解时，是否也优先分配空闲的硬解名额
+     */
+    @JvmStatic
+    var autoHardDecode: Boolean = false
+
+    /**
+     * 申请解码资源，同一个owner重复申请时会覆盖之前的申请
+     *
+     * @param owner          申请者，一般是播放窗口对应的viewModel
+     * @param wantHardDecode 窗口是否要求硬解码
+     * @param focused        是否是焦点窗口（选中或者单画面）
+     * @param listener       后续因为其他窗口释放或者焦点变化导致分配结果变化时回调
+     */
+    @JvmStatic
+    fun acquire(owner: Any, wantHardDecode: Boolean, focused: Boolean, listener: Listener?): DecodeGrant {
+        val changes: List<Pair<Listener, DecodeGrant>>
+        val grant: DecodeGrant
+        synchronized(this) {
+            entries.remove(owner)
+            val usedHardSlots = entries.values.count { it.hardDecode }
+            val hardDecode = (wantHardDecode || autoHardDecode) && usedHardSlots < hardwareSlots
+            entries[owner] = Entry(hardDecode, focused, listener)
+            changes = rebalance(owner)
+            grant = entries[owner]!!.grant!!
+        }
+        notify(changes)
+        return grant
+    }
+
+    /**
+     * 更新窗口的焦点状态，会重新分配预算
+     */
+    @JvmStatic
+    fun updateFocus(owner: Any, focused: Boolean) {
+        val changes: List<Pair<Listener, DecodeGrant>>
+        synchronized(this) {
+            val entry = entries[owner] ?: return
+            if (entry.focused == focused) return
+            entry.focused = focused
+            changes = rebalance(null)
+        }
+        notify(changes)
+    }
+
+    /**
+     * 释放解码资源
+     */
+    @JvmStatic
+    fun release(owner: Any) {
+        val changes: List<Pair<Listener, DecodeGrant>>
+        synchronized(this) {
+            entries.remove(owner) ?: return
+            changes = rebalance(null)
+        }
+        notify(changes)
+    }
+
+    /**
+     * 在锁外回调，回调中可以再次申请或者释放预算
+     */
+    private fun notify(changes: List<Pair<Listener, DecodeGrant>>) {
+        for ((listener, grant) in changes) {
+            listener.onGrantChanged(grant)
+        }
+    }
+
+    /**
+     * 重新分配软解线程：焦点窗口优先分到多线程，其余每个窗口一个线程，
+     * 线程用完后的窗口不再分配线程，并降低期待帧率
+     *
+     * @param silentOwner 不需要回调的申请者，它会直接拿到返回值
+     * @return 需要回调的分配变化，由调用方释放锁后回调
+     */
+    private fun rebalance(silentOwner: Any?): List<Pair<Listener, DecodeGrant>> {
+        var freeThreads = decodeThreadBudget
+        val focusedThreads = (decodeThreadBudget / 2).coerceIn(1, MAX_DECODE_THREAD)
+        val softEntries = ArrayList<Entry>(entries.size)
+        for (entry in entries.values) {
+            if (!entry.hardDecode) {
+                softEntries.add(entry)
+            }
+        }
+        //焦点窗口排在前面
+        softEntries.sortBy { if (it.focused) 0 else 1 }
+        val grants = HashMap<Entry, DecodeGrant>(entries.size)
+        for (entry in softEntries) {
+            val wanted = if (entry.focused) focusedThreads else 1
+            val threads = wanted.coerceAtMost(freeThreads.coerceAtLeast(0))
+            //没有分到线程说明已经超出预算
+            val throttled = threads == 0
+            freeThreads -= threads
+            grants[entry] = DecodeGrant(false, threads, if (throttled) throttledFrameRate else 0f)
+        }
+        val changes = ArrayList<Pair<Listener, DecodeGrant>>()
+        for ((owner, entry) in entries) {
+            val grant = grants[entry] ?: DecodeGrant(true, 1, 0f)
+            if (grant == entry.grant) continue
+            val notify = entry.grant != null && owner !== silentOwner
+            entry.grant = grant
+            val listener = entry.listener
+            if (notify && listener != null) {
+                changes.add(listener to grant)
+            }
+        }
+        return changes
+    }
+
+    private fun queryHardwareSlots(): Int {
+        try {
+            val codecList = MediaCodecList(MediaCodecList.REGULAR_CODECS)
+            var slots = 0
+            for (info in codecList.codecInfos) {
+                if (info.isEncoder || !info.supportedTypes.any { it.equals(MIME_AVC, true) }) {
+                    continue
+                }
+                //软件解码器不算硬解名额
+                if (info.name.startsWith("OMX.google.") || info.name.startsWith("c2.android.")) {
+                    continue
+                }
+                slots += if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    info.getCapabilitiesForType(MIME_AVC).maxSupportedInstances
+                } else {
+                    DEFAULT_HARDWARE_SLOTS
+                }
+            }
+            return if (slots > 0) slots else DEFAULT_HARDWARE_SLOTS
+        } catch (e: Exception) {
+            Log.e(TAG, "queryHardwareSlots: ", e)
+            return DEFAULT_HARDWARE_SLOTS
+        }
+    }
+
+}
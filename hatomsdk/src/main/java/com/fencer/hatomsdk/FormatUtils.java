@@ -0,0 +1,71 @@
+package com.fencer.hatomsdk;
+
+import java.text.MessageFormat;
+
+
+/**
+ * <p>不依赖Android的格式化工具</p>
+ * 从MyUtils中拆出来，可以直接在JVM上做基准测试
+ *
+ * @name FormatUtils
+ */
+public final class FormatUtils {
+
+    /*文件名中时间部分的缓冲区，先格式化成ISO-8601再取出数字*/
+    private static final ThreadLocal<char[]> sTimeBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[IsoTimeCodec.LENGTH];
+        }
+    };
+
+    private FormatUtils() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    /**
+     * 获取文件名称（监控点名称_年月日时分秒毫秒）
+     *
+     * @return 文件名称
+     */
+    public static String getFileName(String name) {
+        //yyyy-MM-ddTHH:mm:ss.SSS+08:00，和原来Calendar + String.format的结果相同，不创建Calendar和格式化器
+        char[] time = sTimeBuffer.get();
+        IsoTimeCodec.format(System.currentTimeMillis(), time, 0);
+        return new StringBuilder(name.length() + 18)
+                .append(name)
+                .append('_')
+                .append(time, 0, 4)
+                .append(time, 5, 2)
+                .append(time, 8, 2)
+                .append(time, 11, 2)
+                .append(time, 14, 2)
+                .append(time, 17, 2)
+                .append(time, 20, 3)
+                .toString();
+    }
+
+    /**
+     * 将int错误码转换为固定格式的十六进制错误码 0x00000000
+     *
+     * @param errorCode 十进制错误码
+     * @return 十六进制错误码
+     */
+    public static String convertToHexString(String errorCode) {
+        if (errorCode.startsWith("0x")) {
+            return errorCode;
+        }
+        if (errorCode.length() == 0) {
+            return "";
+        }
+        int parseInt = Integer.parseInt(errorCode);
+        StringBuilder hexCode = new StringBuilder(Integer.toHexString(parseInt));
+        if (hexCode.length() < 8) {
+            int count = 8 - hexCode.length();
+            for (int i = 0; i < count; i++) {
+                hexCode.insert(0, "0");
+            }
+        }
+        return MessageFormat.format("{0}{1}", "0x", hexCode.toString());
+    }
+}
@@ -0,0 +1,187 @@
+package com.fencer.hatomsdk
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.util.LruCache
+import com.blankj.utilcode.util.Utils
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * <p> 画面缓存 </p>
+ * 按窗口和监控点缓存最近一张缩小后的画面，内存中是解码好的Bitmap，按最近使用淘汰，大小按可用堆内存计算；
+ * 磁盘上是缩小后的JPEG，进程重启后也能用，总大小超过maxDiskBytes时删除最久没有使用的。
+ * 翻页重新开启播放时先显示缓存的画面，不用每次都从磁盘解码原图
+ */
+object FrameCache {
+
+    private const val TAG = "FrameCache"
+
+    private const val DISK_DIR = "hatom-frames"
+
+    /*内存缓存占最大堆内存的比例*/
+    private const val MEMORY_FRACTION = 16
+
+    /**
+     * 读取缓存的回调，在主线程回调
+     */
+    fun interface Callback {
+        /**
+         * @param bitmap 缓存的画面，没有时为null
+         */
+        fun onLoaded(key: String, bitmap: Bitmap?)
+    }
+
+    /**
+     * 磁盘缓存的总大小上限
+     */
+    @JvmStatic
+    @Volatile
+    var maxDiskBytes = 32L * 1024 * 1024
+
+    private val memory = object : LruCache<String, Bitmap>(
+        (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+    ) {
+        override fun sizeOf(key: String, value: Bitmap): Int {
+            return value.byteCount
+        }
+    }
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /*单线程读写磁盘，同一个key的写入和读取不会交错*/
+    private val executor = ThreadPoolExecutor(
+        1, 1, 30L, TimeUnit.SECONDS,
+        LinkedBlockingQueue(),
+        object : ThreadFactory {
+            private val count = AtomicInteger()
+            override fun newThread(r: Runnable): Thread {
+                return Thread(r, "hatom-frame-cache-${count.incrementAndGet()}")
+            }
+        }
+    ).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * 缓存的key，同一个窗口换了监控点后不会显示之前监控点的画面
+     *
+     * @param camera 监控点编号或者取流地址
+     */
+    @JvmStatic
+    fun key(window: Int, camera: String): String {
+        return "$window|${camera.substringBefore('?')}"
+    }
+
+    /**
+     * 只查内存缓存，可以在主线程调用
+     */
+    @JvmStatic
+    fun get(key: String): Bitmap? {
+        return memory.get(key)
+    }
+
+    /**
+     * 先查内存缓存，命中时在当前线程直接回调；否则在后台读取磁盘缓存，解码后放进内存缓存再回调
+     */
+    @JvmStatic
+    fun load(key: String, callback: Callback) {
+        val cached = memory.get(key)
+        if (cached != null) {
+            callback.onLoaded(key, cached)
+            return
+        }
+        executor.execute {
+            val file = diskFile(key)
+            var bitmap: Bitmap? = null
+            if (file.exists()) {
+                bitmap = BitmapFactory.decodeFile(file.path)
+                if (bitmap != null) {
+                    memory.put(key, bitmap)
+                    //按最后使用时间淘汰
+                    file.setLastModified(System.currentTimeMillis())
+                }
+            }
+            mainHandler.post { callback.onLoaded(key, bitmap) }
+        }
+    }
+
+    /**
+     * 放入缩小后的画面，磁盘缓存在后台写入
+     *
+     * @param jpeg bitmap压缩后的JPEG数据
+     */
+    internal fun put(key: String, bitmap: Bitmap, jpeg: ByteArray) {
+        memory.put(key, bitmap)
+        executor.execute {
+            val file = diskFile(key)
+            try {
+                FileOutputStream(file).use { it.write(jpeg) }
+            } catch (e: IOException) {
+                Log.w(TAG, "write ${file.path} failed", e)
+                file.delete()
+                return@execute
+            }
+            trimDisk()
+        }
+    }
+
+    @JvmStatic
+    fun remove(key: String) {
+        memory.remove(key)
+        executor.execute { diskFile(key).delete() }
+    }
+
+    /**
+     * 清空内存和磁盘缓存
+     */
+    @JvmStatic
+    fun clear() {
+        memory.evictAll()
+        executor.execute {
+            diskDir().listFiles()?.forEach { it.delete() }
+        }
+    }
+
+    private fun trimDisk() {
+        val files = diskDir().listFiles() ?: return
+        var total = files.sumOf { it.length() }
+        val max = maxDiskBytes
+        if (total <= max) {
+            return
+        }
+        files.sortBy { it.lastModified() }
+        for (file in files) {
+            if (total <= max) {
+                break
+            }
+            total -= file.length()
+            file.delete()
+        }
+    }
+
+    private fun diskDir(): File {
+        return File(Utils.getApp().cacheDir, DISK_DIR).apply { mkdirs() }
+    }
+
+    private fun diskFile(key: String): File {
+        val digest = MessageDigest.getInstance("MD5").digest(key.toByteArray())
+        val name = StringBuilder(digest.size * 2 + 4)
+        for (b in digest) {
+            val value = b.toInt() and 0xFF
+            name.append(Character.forDigit(value shr 4, 16)).append(Character.forDigit(value and 0x0F, 16))
+        }
+        return File(diskDir(), name.append(".jpg").toString())
+    }
+}
@@ -0,0 +1,68 @@
+package com.fencer.hatomsdk
+
+import android.graphics.Bitmap
+
+
+/**
+ * <p> 停止时画面快照的Bitmap池 </p>
+ * 窗口停止播放时用TextureView.getBitmap把最后一帧画到复用的Bitmap里，重新开启时作为占位图显示。
+ * 同一个窗口大小不变时一直复用自己的Bitmap，切换分屏后尺寸变化的Bitmap放回这里给其他窗口使用，
+ * 反复翻页不会再分配新的Bitmap。只在主线程使用
+ */
+object FrameSnapshotPool {
+
+    /*池中最多保留的Bitmap数量，16分屏切换到4分屏时多出来的Bitmap直接丢弃*/
+    private const val MAX_POOLED = 8
+
+    /**
+     * 是否在停止时保留最后一帧
+     */
+    @JvmStatic
+    var enabled = true
+
+    /**
+     * 快照相对窗口的缩小倍数，占位图不需要原始清晰度
+     */
+    @JvmStatic
+    var downscale = 2
+
+    private val pool = ArrayList<Bitmap>()
+
+    /**
+     * 借出一个指定尺寸的Bitmap，池中没有时新建
+     */
+    internal fun acquire(width: Int, height: Int): Bitmap {
+        for (i in pool.indices.reversed()) {
+            val bitmap = pool[i]
+            if (bitmap.width == width && bitmap.height == height) {
+                pool.removeAt(i)
+                return bitmap
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+    }
+
+    /**
+     * 归还Bitmap，调用后不能再显示
+     */
+    internal fun release(bitmap: Bitmap) {
+        if (bitmap.isRecycled) {
+            return
+        }
+        if (pool.size >= MAX_POOLED) {
+            pool.removeAt(0).recycle()
+        }
+        pool.add(bitmap)
+    }
+
+    /**
+     * 释放池中所有Bitmap
+     */
+    @JvmStatic
+    fun clear() {
+        for (bitmap in pool) {
+            bitmap.recycle()
+        }
+        pool.clear()
+    }
+}
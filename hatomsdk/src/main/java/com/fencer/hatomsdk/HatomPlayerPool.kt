@@ -0,0 +1,177 @@
+package com.fencer.hatomsdk
+
+import android.os.Handler
+import android.os.Looper
+import android.os.MessageQueue
+import android.os.SystemClock
+import android.util.Log
+import com.hikvision.hatomplayer.DefaultHatomPlayer
+import com.hikvision.hatomplayer.HatomPlayer
+import com.hikvision.hatomplayer.PlayCallback
+
+
+/**
+ * 播放器池配置
+ */
+class PlayerPoolConfig(
+    /*池中最多保留的空闲播放器数量*/
+    var maxIdle: Int = 16,
+    /*SDK初始化时预热的播放器数量*/
+    var prewarmCount: Int = 4,
+    /*空闲播放器超过该时间未被借出就释放，单位毫秒*/
+    var idleTimeoutMs: Long = 60_000L
+)
+
+
+/**
+ * <p> 播放器池 </p>
+ * 每个播放窗口在开始播放时借出一个播放器，停止播放后归还，
+ * 多分屏同时打开时不再每个窗口都从头创建播放器
+ */
+object HatomPlayerPool {
+
+    private const val TAG = "HatomPlayerPool"
+
+    private class IdlePlayer(val player: HatomPlayer, val idleSince: Long)
+
+    private val idlePlayers = ArrayDeque<IdlePlayer>()
+
+    private var config = PlayerPoolConfig()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private var evictScheduled = false
+
+    /**
+     * 归还后的播放器可能还会收到上一次播放的回调，统一交给这里丢弃
+     */
+    private val idleCallback = PlayCallback.PlayStatusCallback { _, _ -> }
+
+    private val evictTask = Runnable {
+        synchronized(this) {
+            evictScheduled = false
+        }
+        evictIdle()
+    }
+
+    /**
+     * 初始化播放器池，并在主线程空闲时预热播放器
+     */
+    fun init(poolConfig: PlayerPoolConfig) {
+        synchronized(this) {
+            config = poolConfig
+        }
+        prewarm(poolConfig.prewarmCount)
+    }
+
+    /**
+     * 预热播放器，每次主线程空闲时创建一个，避免集中创建卡住启动
+     */
+    fun prewarm(count: Int) {
+        if (count <= 0) return
+        mainHandler.post {
+            var remain = count
+            Looper.myQueue().addIdleHandler(MessageQueue.IdleHandler {
+                synchronized(this) {
+                    if (idlePlayers.size >= config.maxIdle) {
+                        return@IdleHandler false
+                    }
+                    idlePlayers.addLast(IdlePlayer(createPlayer(), SystemClock.elapsedRealtime()))
+                }
+                scheduleEvict()
+                --remain > 0
+            })
+        }
+    }
+
+    /**
+     * 借出一个播放器，池中没有空闲的就新建
+     */
+    fun acquire(): HatomPlayer {
+        synchronized(this) {
+            val idle = idlePlayers.removeLastOrNull()
+            if (idle != null) {
+                return idle.player
+            }
+        }
+        return createPlayer()
+    }
+
+    /**
+     * 归还播放器，调用前需要保证播放器已经停止
+     */
+    fun release(player: HatomPlayer) {
+        player.setPlayStatusCallback(idleCallback)
+        (player as? ManagedHatomPlayer)?.reset()
+        val overflow: HatomPlayer?
+        synchronized(this) {
+            idlePlayers.addLast(IdlePlayer(player, SystemClock.elapsedRealtime()))
+            overflow = if (idlePlayers.size > config.maxIdle) idlePlayers.removeFirst().player else null
+        }
+        overflow?.let { destroyPlayer(it) }
+        scheduleEvict()
+    }
+
+    /**
+     * 当前空闲的播放器数量
+     */
+    fun idleCount(): Int {
+        synchronized(this) {
+            return idlePlayers.size
+        }
+    }
+
+    /**
+     * 释放所有空闲播放器
+     */
+    fun clear() {
+        val players: List<IdlePlayer>
+        synchronized(this) {
+            players = idlePlayers.toList()
+            idlePlayers.clear()
+        }
+        for (idle in players) {
+            destroyPlayer(idle.player)
+        }
+    }
+
+    private fun createPlayer(): HatomPlayer {
+        return ManagedHatomPlayer()
+    }
+
+    private fun destroyPlayer(player: HatomPlayer) {
+        try {
+            (player as? DefaultHatomPlayer)?.release()
+        } catch (e: Exception) {
+            Log.e(TAG, "destroyPlayer: ", e)
+        }
+    }
+
+    private fun scheduleEvict() {
+        val timeout: Long
+        synchronized(this) {
+            if (evictScheduled || idlePlayers.isEmpty()) return
+            evictScheduled = true
+            timeout = config.idleTimeoutMs
+        }
+        mainHandler.postDelayed(evictTask, timeout)
+    }
+
+    /**
+     * 释放超时未被借出的空闲播放器，最老的在队头
+     */
+    private fun evictIdle() {
+        val expired = mutableListOf<HatomPlayer>()
+        synchronized(this) {
+            val deadline = SystemClock.elapsedRealtime() - config.idleTimeoutMs
+            while (idlePlayers.isNotEmpty() && idlePlayers.first().idleSince <= deadline) {
+                expired.add(idlePlayers.removeFirst().player)
+            }
+        }
+        for (player in expired) {
+            destroyPlayer(player)
+        }
+        scheduleEvict()
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.fencer.hatomsdk
 
 import android.app.Application
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
 import android.view.Gravity
 import androidx.core.content.ContextCompat
 import com.blankj.utilcode.util.AppUtils
@@ -20,8 +24,15 @@ Description:
 
 object HatomSdk {
 
+    /**
+     * 取流地址缓存，设置StreamUrlResolver后才有，窗口按监控点开启播放时从这里获取取流地址
+     */
+    @JvmStatic
+    var streamUrlCache: StreamUrlCache? = null
+        private set
 
-    fun init(context: Application){
+    @JvmOverloads
+    fun init(context: Application, poolConfig: PlayerPoolConfig = PlayerPoolConfig()){
 
         ToastUtils.getDefaultMaker()
             .setGravity(Gravity.CENTER, 0, 0)
@@ -29,8 +40,27 @@ object HatomSdk {
             .setTextColor(ContextCompat.getColor(context, R.color.white))
         Utils.init(context)
         HatomPlayerSDK.init(context, "", AppUtils.isAppDebug())
+        //预热播放器池，多分屏打开时窗口直接借用
+        HatomPlayerPool.init(poolConfig)
+        //时间格式化缓存了时区，设备时区变化后重新读取
+        context.registerReceiver(object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                IsoTimeCodec.refreshTimeZone()
+            }
+        }, IntentFilter(Intent.ACTION_TIMEZONE_CHANGED))
 
     }
 
+    /**
+     * 设置取流地址解析，之后可以用StreamRequest按监控点开启播放，令牌过期后重新播放和重连都会重新取流
+     *
+     * @param resolver 为null时关闭取流地址解析
+     */
+    @JvmStatic
+    fun setStreamUrlResolver(resolver: StreamUrlResolver?) {
+        streamUrlCache?.clear()
+        streamUrlCache = resolver?.let { StreamUrlCache(it) }
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+package com.fencer.hatomsdk;
+
+import java.util.TimeZone;
+
+
+/**
+ * <p>海康平台时间格式的编解码</p>
+ * 格式为"2018-05-07T14:41:57.819+08:00"，直接在毫秒时间戳上计算，不创建Calendar、Date和SimpleDateFormat，
+ * 每个线程缓存一个字符缓冲区和当天的日期，同一天内格式化只需要改写时分秒，可以在任意线程调用
+ *
+ * @name IsoTimeCodec
+ */
+public final class IsoTimeCodec {
+
+    /**
+     * 格式化后的长度
+     */
+    public static final int LENGTH = 29;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final int MILLIS_PER_MINUTE = 60_000;
+
+    /**
+     * 格式化使用的时区，默认是手机设备所在时区
+     */
+    private static volatile TimeZone sTimeZone = TimeZone.getDefault();
+
+    private static final ThreadLocal<FormatBuffer> sBuffer = new ThreadLocal<FormatBuffer>() {
+        @Override
+        protected FormatBuffer initialValue() {
+            return new FormatBuffer();
+        }
+    };
+
+    /**
+     * 每个线程的格式化缓冲区
+     */
+    private static final class FormatBuffer {
+        final char[] chars = new char[LENGTH];
+        /*缓冲区中已写好日期的那一天，本地时间的天数*/
+        long cachedDay = Long.MIN_VALUE;
+    }
+
+    private IsoTimeCodec() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    /**
+     * 设置格式化使用的时区
+     */
+    public static void setTimeZone(TimeZone timeZone) {
+        sTimeZone = timeZone == null ? TimeZone.getDefault() : (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * 手机设备时区变化后重新读取
+     */
+    public static void refreshTimeZone() {
+        sTimeZone = TimeZone.getDefault();
+    }
+
+    public static TimeZone getTimeZone() {
+        return (TimeZone) sTimeZone.clone();
+    }
+
+    /**
+     * 格式化为"2018-05-07T14:41:57.819+08:00"
+     *
+     * @param millis 毫秒时间戳
+     * @return 格式化时间字符串
+     */
+    public static String format(long millis) {
+        FormatBuffer buffer = sBuffer.get();
+        formatTo(millis, buffer);
+        return new String(buffer.chars, 0, LENGTH);
+    }
+
+    /**
+     * 格式化后追加到builder，不创建对象
+     *
+     * @param millis  毫秒时间戳
+     * @param builder 追加的目标
+     */
+    public static void format(long millis, StringBuilder builder) {
+        FormatBuffer buffer = sBuffer.get();
+        formatTo(millis, buffer);
+        builder.append(buffer.chars, 0, LENGTH);
+    }
+
+    /**
+     * 格式化后写入数组，不创建对象
+     *
+     * @param millis 毫秒时间戳
+     * @param dst    目标数组，从offset开始至少要有{@link #LENGTH}个字符
+     * @param offset 写入的位置
+     */
+    public static void format(long millis, char[] dst, int offset) {
+        FormatBuffer buffer = sBuffer.get();
+        formatTo(millis, buffer);
+        System.arraycopy(buffer.chars, 0, dst, offset, LENGTH);
+    }
+
+    private static void formatTo(long millis, FormatBuffer buffer) {
+        char[] chars = buffer.chars;
+        int zoneOffset = sTimeZone.getOffset(millis);
+        long local = millis + zoneOffset;
+        long day = local / MILLIS_PER_DAY;
+        int millisOfDay = (int) (local - day * MILLIS_PER_DAY);
+        if (millisOfDay < 0) {
+            day--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        if (day != buffer.cachedDay) {
+            writeDate(chars, day);
+            buffer.cachedDay = day;
+        }
+        int seconds = millisOfDay / 1000;
+        write2(chars, 11, seconds / 3600);
+        chars[13] = ':';
+        write2(chars, 14, seconds / 60 % 60);
+        chars[16] = ':';
+        write2(chars, 17, seconds % 60);
+        chars[19] = '.';
+        write3(chars, 20, millisOfDay % 1000);
+        int offsetMinutes = zoneOffset / MILLIS_PER_MINUTE;
+        if (offsetMinutes < 0) {
+            chars[23] = '-';
+            offsetMinutes = -offsetMinutes;
+        } else {
+            chars[23] = '+';
+        }
+        write2(chars, 24, offsetMinutes / 60);
+        chars[26] = ':';
+        write2(chars, 27, offsetMinutes % 60);
+    }
+
+    /**
+     * 写入"yyyy-MM-ddT"，天数转年月日参考 http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static void writeDate(char[] chars, long epochDay) {
+        long z = epochDay + 719_468L;
+        long era = (z >= 0 ? z : z - 146_096L) / 146_097L;
+        int doe = (int) (z - era * 146_097L);
+        int yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("year out of range: " + year);
+        }
+        write2(chars, 0, (int) year / 100);
+        write2(chars, 2, (int) year % 100);
+        chars[4] = '-';
+        write2(chars, 5, month);
+        chars[7] = '-';
+        write2(chars, 8, day);
+        chars[10] = 'T';
+    }
+
+    private static void write2(char[] chars, int index, int value) {
+        chars[index] = (char) ('0' + value / 10);
+        chars[index + 1] = (char) ('0' + value % 10);
+    }
+
+    private static void write3(char[] chars, int index, int value) {
+        chars[index] = (char) ('0' + value / 100);
+        chars[index + 1] = (char) ('0' + value / 10 % 10);
+        chars[index + 2] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * 解析"2018-05-07T14:41:57.819+08:00"，也支持不带毫秒、"Z"和"+0800"形式的时区，不创建对象
+     *
+     * @param text 格式化时间字符串
+     * @return 毫秒时间戳
+     * @throws IllegalArgumentException 格式不正确
+     */
+    public static long parse(CharSequence text) {
+        if (text == null) {
+            throw new IllegalArgumentException("time is null");
+        }
+        int length = text.length();
+        if (length < 20) {
+            throw invalid(text);
+        }
+        int year = parseNumber(text, 0, 4);
+        expect(text, 4, '-');
+        int month = parseNumber(text, 5, 2);
+        expect(text, 7, '-');
+        int day = parseNumber(text, 8, 2);
+        expect(text, 10, 'T');
+        int hour = parseNumber(text, 11, 2);
+        expect(text, 13, ':');
+        int minute = parseNumber(text, 14, 2);
+        expect(text, 16, ':');
+        int second = parseNumber(text, 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(text);
+        }
+        int index = 19;
+        int millis = 0;
+        if (text.charAt(index) == '.') {
+            //小数部分只保留到毫秒
+            index++;
+            int digits = 0;
+            while (index < length && isDigit(text.charAt(index))) {
+                if (digits < 3) {
+                    millis = millis * 10 + (text.charAt(index) - '0');
+                }
+                digits++;
+                index++;
+            }
+            if (digits == 0) {
+                throw invalid(text);
+            }
+            for (; digits < 3; digits++) {
+                millis *= 10;
+            }
+        }
+        int offsetMillis = parseZoneOffset(text, index);
+        long epochDay = daysFromCivil(year, month, day);
+        return epochDay * MILLIS_PER_DAY + hour * 3_600_000L + minute * (long) MILLIS_PER_MINUTE
+                + second * 1000L + millis - offsetMillis;
+    }
+
+    private static int parseZoneOffset(CharSequence text, int index) {
+        int length = text.length();
+        if (index >= length) {
+            throw invalid(text);
+        }
+        char sign = text.charAt(index);
+        if (sign == 'Z') {
+            if (index + 1 != length) {
+                throw invalid(text);
+            }
+            return 0;
+        }
+        if (sign != '+' && sign != '-') {
+            throw invalid(text);
+        }
+        int hour = parseNumber(text, index + 1, 2);
+        int minute;
+        int end = index + 3;
+        if (end == length) {
+            minute = 0;
+        } else if (text.charAt(end) == ':') {
+            minute = parseNumber(text, end + 1, 2);
+            end += 3;
+        } else {
+            minute = parseNumber(text, end, 2);
+            end += 2;
+        }
+        if (end != length || hour > 18 || minute > 59) {
+            throw invalid(text);
+        }
+        int offset = (hour * 60 + minute) * MILLIS_PER_MINUTE;
+        return sign == '-' ? -offset : offset;
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = (int) (y - era * 400);
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146_097L + doe - 719_468L;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int parseNumber(CharSequence text, int index, int digits) {
+        if (index + digits > text.length()) {
+            throw invalid(text);
+        }
+        int value = 0;
+        for (int i = index; i < index + digits; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                throw invalid(text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void expect(CharSequence text, int index, char c) {
+        if (text.charAt(index) != c) {
+            throw invalid(text);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static IllegalArgumentException invalid(CharSequence text) {
+        return new IllegalArgumentException("The time format not 2018-05-07T14:41:57.819+08:00: " + text);
+    }
+}
@@ -0,0 +1,393 @@
+package com.fencer.hatomsdk
+
+import android.graphics.SurfaceTexture
+import android.os.SystemClock
+import android.util.Log
+import com.hikvision.hatomplayer.DefaultHatomPlayer
+import com.hikvision.hatomplayer.PlayCallback
+import com.hikvision.hatomplayer.core.StreamType
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * <p> 播放器池中使用的播放器 </p>
+ * 在默认播放器的基础上可以暂停解码：暂停期间只保持取流，码流不送给解码器，
+ * 同时缓存最近一个I帧开始的码流，恢复解码时先把缓存送给解码器，马上就能出图。
+ * 还没有设置画布时也可以先开始取流，码流头和码流都先缓存，设置画布后再送给解码器。
+ * 开启预录像后，预览码流同时写进堆外的环形缓存，开始录像时由这里自己写录像文件：
+ * 先写码流头和缓存的码流，之后收到的码流直接追加
+ */
+class ManagedHatomPlayer : DefaultHatomPlayer() {
+
+    companion object {
+        private const val TAG = "ManagedHatomPlayer"
+
+        /*单个播放器最多缓存的码流大小，超过后丢弃，等待下一个I帧*/
+        private const val MAX_CACHE_BYTES = 4 * 1024 * 1024
+
+        private const val RECORD_BUFFER_SIZE = 64 * 1024
+
+        /**
+         * 所有播放器合计最多缓存的码流大小，预连接相邻页时暂停解码的播放器很多，
+         * 用完后新的码流不再缓存，恢复解码时等待下一个I帧
+         */
+        @JvmStatic
+        @Volatile
+        var maxTotalCacheBytes = 32L * 1024 * 1024
+
+        private val totalCacheBytes = AtomicLong()
+
+        /**
+         * 当前所有播放器缓存的码流大小
+         */
+        @JvmStatic
+        fun totalCacheBytes(): Long {
+            return totalCacheBytes.get()
+        }
+
+        private fun reserveCache(bytes: Int): Boolean {
+            while (true) {
+                val used = totalCacheBytes.get()
+                if (used + bytes > maxTotalCacheBytes) {
+                    return false
+                }
+                if (totalCacheBytes.compareAndSet(used, used + bytes)) {
+                    return true
+                }
+            }
+        }
+    }
+
+    private val lock = Any()
+
+    /*预录像和自己写的录像文件使用单独的锁，不和暂停解码互相等待*/
+    private val recordLock = Any()
+
+    /*预录像缓存，开启预录像后收到第一个预览码流时分配*/
+    private var preRecordRing: PreRecordRing? = null
+
+    /*预览的码流头，写在录像文件的开头*/
+    private var recordHead: ByteArray? = null
+
+    /*带预录像的录像文件，为null时使用播放库录像*/
+    @Volatile
+    private var recordOut: OutputStream? = null
+
+    private var recordCallback: PlayCallback.RecordCallback? = null
+
+    private var recordStartTime = 0L
+
+    private var recordSeconds = 0
+
+    /*是否暂停解码*/
+    @Volatile
+    private var decodeSuspended = false
+
+    /*是否已经设置了画布*/
+    @Volatile
+    private var surfaceAttached = false
+
+    /*还没有设置画布时收到的码流头*/
+    private var pendingHead: ByteArray? = null
+
+    private var pendingHeadType: StreamType? = null
+
+    /*从最近一个I帧开始缓存的码流*/
+    private val gopCache = ArrayList<ByteArray>()
+
+    private var gopCacheBytes = 0
+
+    private var gopCacheType: StreamType? = null
+
+    /**
+     * 暂停或恢复解码，恢复时先把缓存的码流送给解码器
+     */
+    fun setDecodeSuspended(suspended: Boolean) {
+        synchronized(lock) {
+            if (decodeSuspended == suspended) {
+                return
+            }
+            decodeSuspended = suspended
+            flushPending()
+        }
+    }
+
+    /**
+     * 设置画布，之前缓存的码流头和码流会在这里送给解码器，可能比较耗时，不要在主线程调用
+     */
+    override fun setSurfaceTexture(surfaceTexture: SurfaceTexture?) {
+        super.setSurfaceTexture(surfaceTexture)
+        synchronized(lock) {
+            surfaceAttached = surfaceTexture != null
+            flushPending()
+        }
+    }
+
+    fun isSurfaceAttached(): Boolean {
+        return surfaceAttached
+    }
+
+    /**
+     * 有画布后先送码流头，没有暂停解码时再把缓存的码流送给解码器
+     */
+    private fun flushPending() {
+        if (!surfaceAttached) {
+            return
+        }
+        val head = pendingHead
+        val headType = pendingHeadType
+        if (head != null) {
+            pendingHead = null
+            pendingHeadType = null
+            super.headData(head, head.size, headType)
+        }
+        if (decodeSuspended) {
+            return
+        }
+        val type = gopCacheType
+        if (type != null) {
+            for (packet in gopCache) {
+                super.bodyData(packet, packet.size, type)
+            }
+        }
+        clearCache()
+    }
+
+    fun isDecodeSuspended(): Boolean {
+        return decodeSuspended
+    }
+
+    /**
+     * 归还到播放器池时恢复默认状态
+     */
+    fun reset() {
+        synchronized(lock) {
+            decodeSuspended = false
+            surfaceAttached = false
+            pendingHead = null
+            pendingHeadType = null
+            clearCache()
+        }
+        //空闲的播放器不占用预录像的内存
+        synchronized(recordLock) {
+            closeRecordOut()
+            recordHead = null
+            releaseRing()
+        }
+    }
+
+    override fun release() {
+        synchronized(lock) {
+            clearCache()
+        }
+        synchronized(recordLock) {
+            closeRecordOut()
+            releaseRing()
+        }
+        super.release()
+    }
+
+    override fun setRecordCallback(callback: PlayCallback.RecordCallback?) {
+        synchronized(recordLock) {
+            recordCallback = callback
+        }
+        super.setRecordCallback(callback)
+    }
+
+    /**
+     * 有预录像缓存时自己写录像文件，否则使用播放库录像
+     */
+    override fun startRecord(path: String?): Int {
+        if (path != null) {
+            synchronized(recordLock) {
+                val ring = preRecordRing
+                val head = recordHead
+                if (ring != null && !ring.isEmpty() && head != null) {
+                    return startPreRecord(path, head, ring)
+                }
+            }
+        }
+        return super.startRecord(path)
+    }
+
+    override fun stopRecord(): Int {
+        synchronized(recordLock) {
+            if (recordOut != null) {
+                closeRecordOut()
+                return 0
+            }
+        }
+        return super.stopRecord()
+    }
+
+    override fun headData(data: ByteArray?, length: Int, type: StreamType?) {
+        if (type == StreamType.STREAM_REAL_PLAY && data != null) {
+            synchronized(recordLock) {
+                //新的码流头之前缓存的码流不能再用
+                recordHead = data.copyOf(length)
+                preRecordRing?.clear()
+            }
+        }
+        if (!surfaceAttached && data != null && type != StreamType.STREAM_TALK) {
+            synchronized(lock) {
+                if (!surfaceAttached) {
+                    pendingHead = data.copyOf(length)
+                    pendingHeadType = type
+                    return
+                }
+            }
+        }
+        super.headData(data, length, type)
+    }
+
+    override fun bodyData(data: ByteArray?, length: Int, type: StreamType?) {
+        if (type == StreamType.STREAM_REAL_PLAY && data != null && (recordOut != null || PreRecordBuffer.isEnabled())) {
+            synchronized(recordLock) {
+                tapPacket(data, length)
+            }
+        }
+        if (isBodyGated() && data != null && type != StreamType.STREAM_TALK) {
+            synchronized(lock) {
+                if (isBodyGated()) {
+                    cachePacket(data, length, type)
+                    return
+                }
+            }
+        }
+        super.bodyData(data, length, type)
+    }
+
+    private fun isBodyGated(): Boolean {
+        return decodeSuspended || !surfaceAttached
+    }
+
+    private fun cachePacket(data: ByteArray, length: Int, type: StreamType?) {
+        if (isKeyFramePacket(data, length)) {
+            clearCache()
+        } else if (gopCache.isEmpty()) {
+            //还没有收到I帧，缓存了也解不出来
+            return
+        }
+        if (gopCacheBytes + length > MAX_CACHE_BYTES || !reserveCache(length)) {
+            clearCache()
+            return
+        }
+        gopCache.add(data.copyOf(length))
+        gopCacheBytes += length
+        gopCacheType = type
+    }
+
+    private fun clearCache() {
+        gopCache.clear()
+        totalCacheBytes.addAndGet(-gopCacheBytes.toLong())
+        gopCacheBytes = 0
+        gopCacheType = null
+    }
+
+    /**
+     * 录像中直接写进录像文件，否则写进预录像缓存。录像中不缓存，下一段录像不会重复写入同样的码流
+     */
+    private fun tapPacket(data: ByteArray, length: Int) {
+        val out = recordOut
+        if (out != null) {
+            try {
+                out.write(data, 0, length)
+            } catch (e: IOException) {
+                Log.e(TAG, "write record failed", e)
+                closeRecordOut()
+                return
+            }
+            val seconds = ((SystemClock.elapsedRealtime() - recordStartTime) / 1000).toInt()
+            if (seconds > recordSeconds) {
+                recordSeconds = seconds
+                recordCallback?.recordTime(seconds)
+            }
+            return
+        }
+        val duration = PreRecordBuffer.durationMs
+        if (duration <= 0L) {
+            releaseRing()
+            return
+        }
+        val ring = preRecordRing ?: allocateRing() ?: return
+        ring.add(data, length, isKeyFramePacket(data, length), duration)
+    }
+
+    private fun allocateRing(): PreRecordRing? {
+        val bytes = PreRecordBuffer.reserve()
+        if (bytes <= 0) {
+            return null
+        }
+        return try {
+            PreRecordRing(bytes).also { preRecordRing = it }
+        } catch (e: OutOfMemoryError) {
+            Log.w(TAG, "allocate pre-record buffer failed", e)
+            PreRecordBuffer.release(bytes)
+            null
+        }
+    }
+
+    private fun releaseRing() {
+        val ring = preRecordRing ?: return
+        preRecordRing = null
+        PreRecordBuffer.release(ring.capacity)
+    }
+
+    /**
+     * 新建录像文件，先写码流头和缓存的码流
+     */
+    private fun startPreRecord(path: String, head: ByteArray, ring: PreRecordRing): Int {
+        var out: OutputStream? = null
+        try {
+            out = BufferedOutputStream(FileOutputStream(path), RECORD_BUFFER_SIZE)
+            out.write(head)
+            ring.writeTo(out)
+        } catch (e: IOException) {
+            Log.e(TAG, "start pre-record failed", e)
+            try {
+                out?.close()
+            } catch (ignored: IOException) {
+            }
+            File(path).delete()
+            return -1
+        } finally {
+            ring.clear()
+        }
+        recordOut = out
+        recordStartTime = SystemClock.elapsedRealtime()
+        recordSeconds = 0
+        return 0
+    }
+
+    private fun closeRecordOut() {
+        val out = recordOut ?: return
+        recordOut = null
+        try {
+            out.close()
+        } catch (e: IOException) {
+            Log.e(TAG, "close record failed", e)
+        }
+    }
+
+    /**
+     * PS包头(00 00 01 BA)后面紧跟系统头(00 00 01 BB)时是I帧的开始
+     */
+    private fun isKeyFramePacket(data: ByteArray, length: Int): Boolean {
+        if (length < 18 || !isStartCode(data, 0, 0xBA)) {
+            return false
+        }
+        val offset = 14 + (data[13].toInt() and 0x07)
+        return length >= offset + 4 && isStartCode(data, offset, 0xBB)
+    }
+
+    private fun isStartCode(data: ByteArray, offset: Int, streamId: Int): Boolean {
+        return data[offset].toInt() == 0 && data[offset + 1].toInt() == 0 &&
+                data[offset + 2].toInt() == 1 && (data[offset + 3].toInt() and 0xFF) == streamId
+    }
+
+}
@@ -13,20 +13,27 @@ import android.view.View;
 import androidx.annotation.NonNull;
 
 import java.io.File;
-import java.text.MessageFormat;
-import java.util.Calendar;
-import java.util.Locale;
 
 public class MyUtils {
     private static final String TAG = "MyUtils";
 
+    /*getExternalFilesDir每次都要检查和创建目录，路径不会变，第一次拿到后缓存下来*/
+    private static volatile String sPicturesDir;
+    private static volatile String sMoviesDir;
 
     /**
      * 抓图路径格式：/storage/emulated/0/Android/data/com.hikvision.open.app/files/Pictures/_20180917151634445.jpg
      */
     public static String getCaptureImagePath(Context context) {
-        File file = context.getExternalFilesDir(DIRECTORY_PICTURES);
-        String path = file.getAbsolutePath() + File.separator + MyUtils.getFileName("") + ".jpg";
+        return getCaptureImagePath(context, "");
+    }
+
+    /**
+     * 文件名前面加上窗口标识，多个窗口在同一毫秒抓图时不会重名
+     * 抓图路径格式：/storage/emulated/0/Android/data/com.hikvision.open.app/files/Pictures/win3_20180917151634445.jpg
+     */
+    public static String getCaptureImagePath(Context context, String name) {
+        String path = getPicturesDir(context) + File.separator + MyUtils.getFileName(name) + ".jpg";
         Log.i(TAG, "getCaptureImagePath: " + path);
         return path;
     }
@@ -35,39 +42,63 @@ public class MyUtils {
      * 抓图路径格式：/storage/emulated/0/Android/data/com.hikvision.open.app/files/Thumbnail/_20180917151634445.jpg
      */
     public static String getCaptureImageThumbnailPath(Context context) {
-        File file = context.getExternalFilesDir(DIRECTORY_PICTURES);
-        String path = file.getAbsolutePath() + File.separator + "thumb" + MyUtils.getFileName("") + ".jpg";
+        String path = getPicturesDir(context) + File.separator + "thumb" + MyUtils.getFileName("") + ".jpg";
         Log.i(TAG, "getCaptureImagePath: " + path);
         return path;
     }
 
+    /**
+     * 整屏抓图清单路径格式：/storage/emulated/0/Android/data/com.hikvision.open.app/files/Pictures/wall_20180917151634445.json
+     */
+    public static String getCaptureManifestPath(Context context) {
+        String path = getPicturesDir(context) + File.separator + "wall" + MyUtils.getFileName("") + ".json";
+        Log.i(TAG, "getCaptureManifestPath: " + path);
+        return path;
+    }
+
+    /**
+     * 和抓图文件对应的缩略图路径：同一目录下文件名前面加thumb
+     */
+    public static String getCaptureImageThumbnailPath(String imagePath) {
+        File image = new File(imagePath);
+        return image.getParent() + File.separator + "thumb" + image.getName();
+    }
+
 
     /**
      * 录像路径格式：/storage/emulated/0/Android/data/com.hikvision.open.app/files/Movies/_20180917151636872.mp4
      */
     public static String getLocalRecordPath(Context context) {
-        File file = context.getExternalFilesDir(DIRECTORY_MOVIES);
-        String path = file.getAbsolutePath() + File.separator + MyUtils.getFileName("") + ".mp4";
+        String path = getMoviesDir(context) + File.separator + MyUtils.getFileName("") + ".mp4";
         Log.i(TAG, "getLocalRecordPath: " + path);
         return path;
     }
 
+    private static String getPicturesDir(Context context) {
+        String dir = sPicturesDir;
+        if (dir == null) {
+            dir = context.getExternalFilesDir(DIRECTORY_PICTURES).getAbsolutePath();
+            sPicturesDir = dir;
+        }
+        return dir;
+    }
+
+    static String getMoviesDir(Context context) {
+        String dir = sMoviesDir;
+        if (dir == null) {
+            dir = context.getExternalFilesDir(DIRECTORY_MOVIES).getAbsolutePath();
+            sMoviesDir = dir;
+        }
+        return dir;
+    }
+
     /**
      * 获取文件名称（监控点名称_年月日时分秒毫秒）
      *
      * @return 文件名称
      */
     public static String getFileName(String name) {
-        Calendar calendar = Calendar.getInstance();
-        return name + "_" +
-                String.format(Locale.CHINA, "%04d%02d%02d%02d%02d%02d%03d",
-                        calendar.get(Calendar.YEAR),
-                        calendar.get(Calendar.MONTH) + 1,
-                        calendar.get(Calendar.DAY_OF_MONTH),
-                        calendar.get(Calendar.HOUR_OF_DAY),
-                        calendar.get(Calendar.MINUTE),
-                        calendar.get(Calendar.SECOND),
-                        calendar.get(Calendar.MILLISECOND));
+        return FormatUtils.getFileName(name);
     }
 
 
@@ -89,20 +120,9 @@ public class MyUtils {
      * @return 十六进制错误码
      */
     public static String convertToHexString(String errorCode) {
-        if (errorCode.startsWith("0x")) {
-            return errorCode;
-        }
         if (TextUtils.isEmpty(errorCode)) {
             return "";
         }
-        int parseInt = Integer.parseInt(errorCode);
-        StringBuilder hexCode = new StringBuilder(Integer.toHexString(parseInt));
-        if (hexCode.length() < 8) {
-            int count = 8 - hexCode.length();
-            for (int i = 0; i < count; i++) {
-                hexCode.insert(0, "0");
-            }
-        }
-        return MessageFormat.format("{0}{1}", "0x", hexCode.toString());
+        return FormatUtils.convertToHexString(errorCode);
     }
 }
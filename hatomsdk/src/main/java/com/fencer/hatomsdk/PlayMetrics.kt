@@ -0,0 +1,361 @@
+package com.fencer.hatomsdk
+
+import android.os.SystemClock
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * 一次播放的统计数据，时间都是SystemClock.elapsedRealtime()，没有发生时为0
+ */
+data class PlaySessionMetrics(
+    /*播放序号，进程内递增*/
+    val sessionId: Long,
+    val url: String,
+    /*是否是回放*/
+    val isPlayback: Boolean,
+    /*调用开启播放的时间*/
+    val requestTime: Long,
+    /*设置播放地址完成的时间*/
+    val dataSourceSetTime: Long,
+    /*播放器start()返回的时间*/
+    val startReturnTime: Long,
+    /*播放成功回调的时间*/
+    val successTime: Long,
+    /*第一帧画面刷新到画布的时间*/
+    val firstFrameTime: Long,
+    /*卡顿次数，两帧画面间隔超过阈值算一次*/
+    val stallCount: Int,
+    /*卡顿总时长*/
+    val stallTotalMs: Long,
+    /*最长一次卡顿的时长*/
+    val longestStallMs: Long,
+    /*最后的错误码，没有错误时为空*/
+    val errorCode: String?,
+    /*播放结束的时间，还在播放时为0*/
+    val endTime: Long
+) {
+
+    /**
+     * 从开启播放到第一帧出图的耗时，还没出图时为-1
+     */
+    val timeToFirstFrameMs: Long
+        get() = if (firstFrameTime > 0) firstFrameTime - requestTime else -1L
+
+    /**
+     * 是否已经结束
+     */
+    val isFinished: Boolean
+        get() = endTime > 0
+}
+
+
+/**
+ * <p> 播放统计 </p>
+ * 每次播放记录从开启到出图各阶段的时间、卡顿和错误码，
+ * 第一帧出图和播放结束时通过监听和Flow通知出去，同时保留最近的记录，方便现场导出
+ */
+object PlayMetrics {
+
+    /*默认保留的记录条数*/
+    private const val DEFAULT_CAPACITY = 128
+
+    /**
+     * 统计监听，在记录统计数据的线程回调，不要做耗时操作
+     */
+    interface Listener {
+        /**
+         * 第一帧出图
+         */
+        fun onFirstFrame(metrics: PlaySessionMetrics) {}
+
+        /**
+         * 画面卡顿后恢复
+         *
+         * @param stallMs 本次卡顿时长
+         */
+        fun onStall(metrics: PlaySessionMetrics, stallMs: Long) {}
+
+        /**
+         * 播放结束，包括主动停止、播放失败、回放结束
+         */
+        fun onSessionEnd(metrics: PlaySessionMetrics) {}
+    }
+
+    /**
+     * 两帧画面间隔超过该值认为是一次卡顿，单位毫秒
+     */
+    @Volatile
+    @JvmStatic
+    var stallThresholdMs: Long = 1_000L
+
+    private val sessionIds = AtomicLong()
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    private val _events = MutableSharedFlow<PlaySessionMetrics>(
+        extraBufferCapacity = DEFAULT_CAPACITY,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    /**
+     * 第一帧出图、卡顿恢复、播放结束时发出当时的统计数据
+     */
+    val events: SharedFlow<PlaySessionMetrics> = _events.asSharedFlow()
+
+    /*最近结束的播放记录，环形缓冲*/
+    private var history = arrayOfNulls<PlaySessionMetrics>(DEFAULT_CAPACITY)
+
+    private var historyNext = 0
+
+    private var historySize = 0
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * 设置保留的记录条数，会清空已有记录
+     */
+    @JvmStatic
+    fun setHistoryCapacity(capacity: Int) {
+        synchronized(this) {
+            history = arrayOfNulls(capacity.coerceAtLeast(1))
+            historyNext = 0
+            historySize = 0
+        }
+    }
+
+    /**
+     * 导出最近结束的播放记录，按结束时间从旧到新
+     */
+    @JvmStatic
+    fun dump(): List<PlaySessionMetrics> {
+        synchronized(this) {
+            val result = ArrayList<PlaySessionMetrics>(historySize)
+            val start = (historyNext - historySize + history.size) % history.size
+            for (i in 0 until historySize) {
+                history[(start + i) % history.size]?.let { result.add(it) }
+            }
+            return result
+        }
+    }
+
+    /**
+     * 以文本形式导出最近结束的播放记录，一行一条
+     */
+    @JvmStatic
+    fun dumpText(): String {
+        val builder = StringBuilder()
+        for (metrics in dump()) {
+            builder.append('#').append(metrics.sessionId)
+                .append(if (metrics.isPlayback) " playback" else " preview")
+                .append(" ttff=").append(metrics.timeToFirstFrameMs)
+                .append(" dataSource=").append(elapsed(metrics.requestTime, metrics.dataSourceSetTime))
+                .append(" start=").append(elapsed(metrics.requestTime, metrics.startReturnTime))
+                .append(" success=").append(elapsed(metrics.requestTime, metrics.successTime))
+                .append(" stalls=").append(metrics.stallCount)
+                .append('/').append(metrics.stallTotalMs).append("ms")
+                .append(" max=").append(metrics.longestStallMs)
+                .append(" error=").append(metrics.errorCode ?: "-")
+                .append(" duration=").append(elapsed(metrics.requestTime, metrics.endTime))
+                .append(' ').append(metrics.url)
+                .append('\n')
+        }
+        return builder.toString()
+    }
+
+    @JvmStatic
+    fun clear() {
+        synchronized(this) {
+            history.fill(null)
+            historyNext = 0
+            historySize = 0
+        }
+    }
+
+    private fun elapsed(from: Long, to: Long): Long {
+        return if (from > 0 && to > 0) to - from else -1L
+    }
+
+    internal fun nextSessionId(): Long {
+        return sessionIds.incrementAndGet()
+    }
+
+    internal fun dispatchFirstFrame(metrics: PlaySessionMetrics) {
+        _events.tryEmit(metrics)
+        for (listener in listeners) {
+            listener.onFirstFrame(metrics)
+        }
+    }
+
+    internal fun dispatchStall(metrics: PlaySessionMetrics, stallMs: Long) {
+        _events.tryEmit(metrics)
+        for (listener in listeners) {
+            listener.onStall(metrics, stallMs)
+        }
+    }
+
+    internal fun dispatchSessionEnd(metrics: PlaySessionMetrics) {
+        synchronized(this) {
+            history[historyNext] = metrics
+            historyNext = (historyNext + 1) % history.size
+            if (historySize < history.size) {
+                historySize++
+            }
+        }
+        _events.tryEmit(metrics)
+        for (listener in listeners) {
+            listener.onSessionEnd(metrics)
+        }
+    }
+}
+
+
+/**
+ * 单个播放窗口的统计记录，每次开启播放时重新开始
+ */
+internal class PlaySessionRecorder {
+
+    private var sessionId = 0L
+    private var url = ""
+    private var isPlayback = false
+    private var requestTime = 0L
+    private var dataSourceSetTime = 0L
+    private var startReturnTime = 0L
+    private var successTime = 0L
+    private var firstFrameTime = 0L
+    private var lastFrameTime = 0L
+    private var stallCount = 0
+    private var stallTotalMs = 0L
+    private var longestStallMs = 0L
+    private var errorCode: String? = null
+
+    /**
+     * 开启播放，上一次没有结束的播放先结束
+     */
+    fun begin(url: String, isPlayback: Boolean) {
+        finish()
+        synchronized(this) {
+            sessionId = PlayMetrics.nextSessionId()
+            this.url = url
+            this.isPlayback = isPlayback
+            requestTime = SystemClock.elapsedRealtime()
+            dataSourceSetTime = 0L
+            startReturnTime = 0L
+            successTime = 0L
+            firstFrameTime = 0L
+            lastFrameTime = 0L
+            stallCount = 0
+            stallTotalMs = 0L
+            longestStallMs = 0L
+            errorCode = null
+        }
+    }
+
+    fun markDataSourceSet() {
+        synchronized(this) {
+            if (sessionId > 0 && dataSourceSetTime == 0L) {
+                dataSourceSetTime = SystemClock.elapsedRealtime()
+            }
+        }
+    }
+
+    fun markStartReturned() {
+        synchronized(this) {
+            if (sessionId > 0 && startReturnTime == 0L) {
+                startReturnTime = SystemClock.elapsedRealtime()
+            }
+        }
+    }
+
+    fun markSuccess() {
+        synchronized(this) {
+            if (sessionId > 0 && successTime == 0L) {
+                successTime = SystemClock.elapsedRealtime()
+            }
+        }
+    }
+
+    fun markError(code: String) {
+        synchronized(this) {
+            if (sessionId > 0) {
+                errorCode = code
+            }
+        }
+    }
+
+    /**
+     * 暂停、拖动、暂停解码时画面本来就不会刷新，重新计算间隔，不算作卡顿
+     */
+    fun resetFrameGap() {
+        synchronized(this) {
+            lastFrameTime = 0L
+        }
+    }
+
+    /**
+     * 画布刷新了一帧，在主线程每帧调用，除了第一帧和卡顿外不创建对象
+     */
+    fun onFrame() {
+        var firstFrame: PlaySessionMetrics? = null
+        var stall: PlaySessionMetrics? = null
+        var stallMs = 0L
+        synchronized(this) {
+            if (sessionId == 0L) {
+                return
+            }
+            val now = SystemClock.elapsedRealtime()
+            if (firstFrameTime == 0L) {
+                firstFrameTime = now
+                firstFrame = snapshot(0L)
+            } else if (lastFrameTime > 0) {
+                val gap = now - lastFrameTime
+                if (gap >= PlayMetrics.stallThresholdMs) {
+                    stallCount++
+                    stallTotalMs += gap
+                    if (gap > longestStallMs) {
+                        longestStallMs = gap
+                    }
+                    stallMs = gap
+                    stall = snapshot(0L)
+                }
+            }
+            lastFrameTime = now
+        }
+        firstFrame?.let { PlayMetrics.dispatchFirstFrame(it) }
+        stall?.let { PlayMetrics.dispatchStall(it, stallMs) }
+    }
+
+    /**
+     * 结束本次播放
+     */
+    fun finish() {
+        val metrics: PlaySessionMetrics
+        synchronized(this) {
+            if (sessionId == 0L) {
+                return
+            }
+            metrics = snapshot(SystemClock.elapsedRealtime())
+            sessionId = 0L
+        }
+        PlayMetrics.dispatchSessionEnd(metrics)
+    }
+
+    private fun snapshot(endTime: Long): PlaySessionMetrics {
+        return PlaySessionMetrics(
+            sessionId, url, isPlayback, requestTime, dataSourceSetTime, startReturnTime,
+            successTime, firstFrameTime, stallCount, stallTotalMs, longestStallMs, errorCode, endTime
+        )
+    }
+}
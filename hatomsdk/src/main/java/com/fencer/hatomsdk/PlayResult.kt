@@ -17,6 +17,15 @@ data class PlayResult(
 ) {
     companion object {
         const val PLAYBACK_SEEK_SUCCESS = "1"
+
+        /*播放失败后正在自动重连*/
+        const val RECONNECTING = "2"
+
+        /*主动停止了播放，只在事件流中发送*/
+        const val STOPPED = "3"
+
+        /*拖动失败，只在事件流中发送*/
+        const val PLAYBACK_SEEK_FAILED = "4"
     }
 }
 
@@ -38,5 +47,8 @@ enum class PlayStatus {
     FAIL,
 
     /*临时停止，有可能再次播放*/
-    STOP
+    STOP,
+
+    /*播放失败后等待自动重连*/
+    RECONNECTING
 }
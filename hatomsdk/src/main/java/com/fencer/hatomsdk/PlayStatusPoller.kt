@@ -0,0 +1,179 @@
+package com.fencer.hatomsdk
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import java.util.concurrent.CopyOnWriteArrayList
+
+
+/**
+ * 一次采样的播放状态
+ */
+data class PlayStatusSnapshot(
+    /*回放的OSD时间，预览时为-1*/
+    val osdTime: Long,
+    /*开始播放以来的总流量，单位字节*/
+    val totalTraffic: Long,
+    /*已播放时长*/
+    val playedTime: Long,
+    /*码流帧率*/
+    val frameRate: Int,
+    /*采样时间，SystemClock.elapsedRealtime()*/
+    val sampleTime: Long
+)
+
+
+/**
+ * <p> 播放状态轮询 </p>
+ * 所有正在播放的窗口共用一个主线程定时器，每个周期依次读取OSD时间、总流量、已播放时长和帧率，
+ * 生成不可变的快照发给各个窗口，不需要每个窗口单独开定时器刷新时间条和流量。
+ * 码率统计也在这个定时器中按自己的间隔采样
+ */
+object PlayStatusPoller {
+
+    /**
+     * 被轮询的窗口
+     */
+    interface Source {
+        /**
+         * 读取当前的播放状态，在主线程调用
+         */
+        fun sampleStatus(sampleTime: Long): PlayStatusSnapshot
+
+        /**
+         * 收到本次采样的快照
+         */
+        fun onStatusSampled(snapshot: PlayStatusSnapshot)
+    }
+
+    /**
+     * 每个周期所有窗口采样完成后在主线程回调
+     */
+    fun interface Listener {
+        fun onStatusPolled()
+    }
+
+    /**
+     * 轮询间隔，单位毫秒
+     */
+    @JvmStatic
+    var intervalMs = 1_000L
+        set(value) {
+            field = value.coerceAtLeast(MIN_INTERVAL_MS)
+        }
+
+    private const val MIN_INTERVAL_MS = 40L
+
+    private val sources = ArrayList<Source>()
+
+    /*每个周期在锁内复制一份再回调，回调中停止播放时可以直接注销，只在主线程使用*/
+    private var tickSources = arrayOfNulls<Source>(16)
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private var ticking = false
+
+    /*上一次码率采样的时间*/
+    private var lastBitrateTime = 0L
+
+    private val tickTask = object : Runnable {
+        override fun run() {
+            val next = SystemClock.uptimeMillis() + intervalMs
+            if (tick()) {
+                mainHandler.postAtTime(this, next)
+            }
+        }
+    }
+
+    /**
+     * 开始轮询，可以在任意线程调用
+     */
+    @JvmStatic
+    fun register(source: Source) {
+        synchronized(sources) {
+            if (!sources.contains(source)) {
+                sources.add(source)
+            }
+        }
+        wake()
+    }
+
+    /**
+     * 停止轮询，可以在任意线程调用
+     */
+    @JvmStatic
+    fun unregister(source: Source) {
+        synchronized(sources) {
+            sources.remove(source)
+        }
+    }
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * 有新的轮询对象时启动定时器
+     */
+    internal fun wake() {
+        synchronized(sources) {
+            if (ticking) {
+                return
+            }
+            ticking = true
+        }
+        mainHandler.post(tickTask)
+    }
+
+    /**
+     * 采样所有窗口，没有窗口也没有码率统计时停止定时器
+     *
+     * @return 是否继续下一个周期
+     */
+    private fun tick(): Boolean {
+        val now = SystemClock.elapsedRealtime()
+        val count: Int
+        synchronized(sources) {
+            count = sources.size
+            if (tickSources.size < count) {
+                tickSources = arrayOfNulls(count * 2)
+            }
+            for (i in 0 until count) {
+                tickSources[i] = sources[i]
+            }
+        }
+        for (i in 0 until count) {
+            val source = tickSources[i] ?: continue
+            tickSources[i] = null
+            source.onStatusSampled(source.sampleStatus(now))
+        }
+        val polled = count > 0
+        //定时器有抖动，差半个周期以内也算到了
+        if (now - lastBitrateTime + intervalMs / 2 >= BitrateMeter.intervalMs) {
+            lastBitrateTime = now
+            BitrateMeter.tick(now)
+        }
+        if (polled) {
+            for (listener in listeners) {
+                listener.onStatusPolled()
+            }
+        }
+        synchronized(sources) {
+            //在锁内判断，避免和新注册的窗口错过启动定时器
+            if (sources.isEmpty() && !BitrateMeter.isActive()) {
+                ticking = false
+                lastBitrateTime = 0L
+                return false
+            }
+        }
+        return true
+    }
+}
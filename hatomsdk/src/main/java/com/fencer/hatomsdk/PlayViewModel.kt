@@ -2,26 +2,44 @@ package com.fencer.hatomsdk
 
 import android.graphics.Rect
 import android.graphics.SurfaceTexture
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import com.blankj.utilcode.util.Utils
-import com.hikvision.hatomplayer.DefaultHatomPlayer
 import com.hikvision.hatomplayer.HatomPlayer
 import com.hikvision.hatomplayer.PlayCallback
 import com.hikvision.hatomplayer.PlayConfig
 import com.hikvision.hatomplayer.core.*
-import io.reactivex.Observable
-import io.reactivex.disposables.Disposable
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.File
 import java.util.*
+import java.util.concurrent.Executor
+import kotlin.coroutines.resume
 
 
 /**
  * <p> 预览ViewModel </p>
  */
-class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback.VoiceTalkCallback {
+class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback.VoiceTalkCallback,
+    BitrateMeter.TrafficSource, PlayStatusPoller.Source {
 
-    private val tasks = mutableListOf<Disposable>()
+    /**
+     * 播放器命令通道，保证同一个播放器的命令按顺序执行
+     */
+    private val commandLane = PlayerCommandLane("window@${Integer.toHexString(hashCode())}")
+
+    /*播放回调在播放器线程，切到主线程后再处理，和停止播放不会交错*/
+    private val mainHandler = Handler(Looper.getMainLooper())
 
     /**
      * 播放结果
@@ -35,15 +53,88 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
     private val _talkResult = MutableLiveData<PlayResult>()
     val talkResult: LiveData<PlayResult> = _talkResult
 
+    /**
+     * 拖动回放从开始执行到重新出图的耗时，单位毫秒
+     */
+    private val _seekLatency = MutableLiveData<Long>()
+    val seekLatency: LiveData<Long> = _seekLatency
+
+    /**
+     * 播放中由PlayStatusPoller定时采样的OSD时间、流量、帧率
+     */
+    private val _statusSnapshot = MutableLiveData<PlayStatusSnapshot>()
+    val statusSnapshot: LiveData<PlayStatusSnapshot> = _statusSnapshot
+
+    /**
+     * 播放状态，在状态变化的线程直接更新，不需要切到主线程
+     */
+    private val _status = MutableStateFlow(PlayStatus.IDLE)
+    val status: StateFlow<PlayStatus> = _status.asStateFlow()
+
+    /**
+     * 播放器内部状态，比status更细，区分了拖动、暂停和正在停止
+     */
+    private val _playerState = MutableStateFlow(PlayerState.IDLE)
+    val playerState: StateFlow<PlayerState> = _playerState.asStateFlow()
+
+    /**
+     * 播放结果事件，包含playResult的所有结果，另外主动停止播放和拖动失败也会发送
+     */
+    private val _events = MutableSharedFlow<PlayResult>(
+        extraBufferCapacity = 16,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+    val events: SharedFlow<PlayResult> = _events.asSharedFlow()
+
     /**
      * 录像结果
      */
     var recordFilePath = ""
 
     /**
-     * 设置播放显示界面
+     * 录像事件，开启、时长、停止和转码进度
+     */
+    private val _recordEvent = MutableLiveData<RecordEvent>()
+    val recordEvent: LiveData<RecordEvent> = _recordEvent
+
+    /*是否正在录像，提交开启命令后就为true，开启失败或者停止后恢复*/
+    @Volatile
+    private var recording = false
+
+    /*本次录像的转码方式，开启时确定*/
+    private var recordMode = RecordConvertMode.ON_THE_FLY
+
+    /*本次录像的分段规则，开启时确定*/
+    private var segmentPolicy: RecordSegmentPolicy? = null
+
+    /*当前分段开始的时间，用于按时长分段*/
+    private var segmentStartElapsed = 0L
+
+    /*本次录像的监控点，用于分段索引*/
+    @Volatile
+    private var recordCamera = ""
+
+    /*当前分段开启成功的时间，只在命令通道中读写*/
+    private var segmentStartTime = 0L
+
+    /**
+     * 窗口序号，用于分段索引
+     */
+    var recordWindow = -1
+
+    /*录像事件在主线程回调后更新LiveData*/
+    private val recordEventCallback: (RecordEvent) -> Unit = { _recordEvent.value = it }
+
+    /**
+     * 设置播放显示界面，可以在开启播放之后再设置，设置后才开始解码
      */
     var surfaceTexture: SurfaceTexture? = null
+        set(value) {
+            field = value
+            if (value != null) {
+                attachSurface(value)
+            }
+        }
 
     /**
      * 硬解码是否开启  true-硬解码  false-软解码
@@ -60,7 +151,73 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
      */
     var playUrl = ""
 
-    private val formatCalendar = Calendar.getInstance()
+    /**
+     * 按监控点开启播放时的取流请求，开启播放和重连前通过HatomSdk.streamUrlCache获取未过期的取流地址，
+     * 直接使用url开启播放时为空
+     */
+    var streamRequest: StreamRequest? = null
+
+    /*每次开启或停止播放加1，丢弃过时的取流地址回调*/
+    private var resolveSerial = 0
+
+    /**
+     * 当前码流类型，预览开始时使用，播放中通过changeQuality切换
+     */
+    var quality: Quality = Quality.MAIN_STREAM_HIGH
+
+    /**
+     * 是否是焦点窗口（选中或者单画面），焦点窗口优先分配解码资源
+     */
+    var decodeFocused: Boolean = true
+        private set
+
+    /**
+     * 全局解码预算分配给当前窗口的解码资源，停止播放后释放
+     */
+    @Volatile
+    private var decodeGrant: DecodeGrant? = null
+
+    /*调用方设置的期待帧率，小于等于0表示没有设置*/
+    private var userFrameRate = 0f
+
+    /*解码预算调整后通知当前窗口*/
+    private val decodeGrantListener = DecodeBudget.Listener { grant ->
+        decodeGrant = grant
+        if (playStatus == PlayStatus.PLAYING) {
+            applyDecodeGrant(grant)
+        }
+    }
+
+    /**
+     * 播放统计，记录每次播放的出图耗时和卡顿
+     */
+    private val sessionRecorder = PlaySessionRecorder()
+
+    /**
+     * 码率统计，播放成功后开始，停止播放后为空
+     */
+    @Volatile
+    var bitrate: BitrateMeter.Channel? = null
+        private set
+
+    /**
+     * 自动重连策略，播放失败或者异常断开后按指数退避重连，设置为ReconnectPolicy.DISABLED时不重连
+     */
+    var reconnectPolicy = ReconnectPolicy()
+
+    /*已经连续重连的次数，播放成功、主动开启或停止播放后清零*/
+    @Volatile
+    private var reconnectAttempt = 0
+
+    /*当前是否是回放，重连时按原来的方式重新开启*/
+    private var isPlayback = false
+
+    private val reconnectTask = Runnable { reconnect() }
+
+    /**
+     * 拖动合并，拖动时间条时只执行最新的目标时间
+     */
+    private val seekCoalescer = SeekCoalescer { dispatchSeek(it) }
 
     var startTime = 0L
 
@@ -72,16 +229,27 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
     private var formatHandle = 0L
 
 
-    /*播放状态，一开始默认为空闲状态*/
-    private var playStatus = PlayStatus.IDLE
-
     /**
-     * 播放器
+     * 播放器状态机，所有状态变化都经过这里
      */
-    private val hatomPlayer: HatomPlayer by lazy {
-        DefaultHatomPlayer()
+    private val stateMachine = PlayerStateMachine("window@${Integer.toHexString(hashCode())}") {
+        _playerState.value = it
+        _status.value = it.playStatus
     }
 
+    /*播放状态，由状态机的状态映射*/
+    private val playStatus: PlayStatus
+        get() = stateMachine.state.playStatus
+
+    /*播放器是否真正开启过，只在命令通道中读写；开启命令还没执行就被停止时，停止命令不再调用播放器*/
+    private var nativeStarted = false
+
+    /**
+     * 播放器，开始播放时从播放器池借出，停止播放后归还
+     */
+    @Volatile
+    private var hatomPlayer: HatomPlayer? = null
+
     private var playConfig = PlayConfig()
 
     /**
@@ -92,82 +260,395 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
     }
 
     /**
-     * 抓图
+     * 抓图，在命令通道中把画面抓到内存，写文件和缩略图在后台完成
+     *
+     * @param cacheKey 不为null时缩略图同时放进FrameCache
+     * @param name     文件名前缀，用来区分同时抓图的窗口
+     * @return 抓图文件路径，文件在回调之后才写完，不在播放中时返回空字符串
+     */
+    @JvmOverloads
+    fun capture(callback: CapturePipeline.Callback? = null, cacheKey: String? = null, name: String = ""): String {
+        return capture(callback, cacheKey, name, null)
+    }
+
+    /**
+     * 整屏抓图时使用，抓图命令在runner中执行，和这个窗口的其他命令仍然按顺序执行
      */
-    fun capture(): String {
+    internal fun capture(callback: CapturePipeline.Callback?, cacheKey: String?, name: String, runner: Executor?): String {
         if (playStatus != PlayStatus.PLAYING) {
+            CapturePipeline.fail(callback)
+            return ""
+        }
+        val player = hatomPlayer
+        if (player == null) {
+            CapturePipeline.fail(callback)
             return ""
         }
-        val path = MyUtils.getCaptureImagePath(Utils.getApp())
-        hatomPlayer.screenshot(path, "")
+        val path = MyUtils.getCaptureImagePath(Utils.getApp(), name)
+        commandLane.execute(PlayerCommand.CAPTURE, onError = { CapturePipeline.fail(callback) }, runner = runner) {
+            val data = player.screenshot()
+            //紧接着取OSD时间，整屏抓图时用来对齐各窗口的画面
+            val osdTime = player.osdTime
+            if (data?.mJpegBuffer == null || data.mJpegSize <= 0) {
+                CapturePipeline.fail(callback)
+            } else {
+                CapturePipeline.save(
+                    data.mJpegBuffer, data.mJpegSize, data.mOriginalWidth, data.mOriginalHeight,
+                    osdTime, path, cacheKey, callback
+                )
+            }
+        }
         return path
     }
 
     /**
-     * 开启录像
+     * 开启录像，在命令通道中执行，结果通过recordEvent回调
+     *
+     * @return 是否提交了开启录像，recordFilePath为本次录像的文件，分段录像时为当前分段的文件
      */
     fun startRecord(): Boolean {
-        if (playStatus != PlayStatus.PLAYING) {
+        return startRecord(null)
+    }
+
+    /**
+     * @param onResult 开启结果，在主线程回调
+     */
+    internal fun startRecord(onResult: ((Boolean) -> Unit)?): Boolean {
+        if (playStatus != PlayStatus.PLAYING || recording) {
             return false
         }
+        val player = hatomPlayer ?: return false
         val path = MyUtils.getLocalRecordPath(Utils.getApp())
-        //todo 这里我们提供带有录像转码功能的接口:startRecordAndConvert()
-        //todo 同时保留了原有接口 hatomPlayer.startRecord(path)，此接口不进行转码
+        var mode = RecordPipeline.convertMode
+        if (mode == RecordConvertMode.ON_THE_FLY && !isPlayback && PreRecordBuffer.isEnabled()) {
+            //预录像的码流由播放器自己写进文件，播放库无法边录边转码，改为停止后转码
+            mode = RecordConvertMode.AFTER_STOP
+        }
+        recording = true
+        recordMode = mode
+        segmentPolicy = RecordPipeline.segmentPolicy
+        //按监控点取流时用监控点，按地址播放时去掉地址中的令牌参数
+        recordCamera = streamRequest?.cameraId ?: playUrl.substringBefore('?')
+        recordFilePath = path
+        segmentStartElapsed = SystemClock.elapsedRealtime()
+        commandLane.execute(PlayerCommand.RECORD, onError = { recordStartFailed(path, onResult) }) {
+            beginRecord(player, path, mode, onResult)
+        }
+        return true
+    }
+
+    /**
+     * 停止录像，在命令通道中执行，需要转码时停止后放到转码队列
+     */
+    fun stopRecord() {
+        stopRecord(null)
+    }
+
+    /**
+     * @param onStopped 录像文件关闭后在主线程回调
+     */
+    internal fun stopRecord(onStopped: (() -> Unit)?) {
+        if (!recording) {
+            onStopped?.invoke()
+            return
+        }
+        recording = false
+        val player = hatomPlayer
+        if (player == null) {
+            onStopped?.invoke()
+            return
+        }
+        val path = recordFilePath
+        val mode = recordMode
+        commandLane.execute(PlayerCommand.RECORD) {
+            finishRecord(player, path, mode, onStopped)
+        }
+    }
 
+    /**
+     * 在命令通道中开启录像文件
+     */
+    private fun beginRecord(player: HatomPlayer, path: String, mode: RecordConvertMode, onResult: ((Boolean) -> Unit)?) {
+        player.setRecordCallback { seconds ->
+            RecordPipeline.dispatch(this, RecordEvent(RecordEvent.Type.TIME, path, seconds)) { event ->
+                recordEventCallback(event)
+                checkSegment(path)
+            }
+        }
         // 转码后，录像文件可以正常使用播放器播放，
         // 不进行转码，只能使用视频SDK进行播放。
-        val result = hatomPlayer.startRecordAndConvert(path) ?: -1 == 0
-        if (result) {
-            recordFilePath = path
+        val recordPath = RecordPipeline.recordingPath(path, mode)
+        val result = if (mode == RecordConvertMode.ON_THE_FLY) {
+            player.startRecordAndConvert(recordPath)
+        } else {
+            player.startRecord(recordPath)
+        }
+        if (result == 0) {
+            segmentStartTime = System.currentTimeMillis()
+            RecordPipeline.dispatch(this, RecordEvent(RecordEvent.Type.STARTED, path)) { event ->
+                recordEventCallback(event)
+                onResult?.invoke(true)
+            }
+        } else {
+            player.setRecordCallback(null)
+            recordStartFailed(path, onResult)
+        }
+    }
+
+    private fun recordStartFailed(path: String, onResult: ((Boolean) -> Unit)?) {
+        RecordPipeline.dispatch(this, RecordEvent(RecordEvent.Type.START_FAILED, path)) { event ->
+            if (recordFilePath == path) {
+                recording = false
+            }
+            recordEventCallback(event)
+            onResult?.invoke(false)
         }
-        return result
     }
 
     /**
-     * 停止录像
+     * 录像时长更新时检查当前分段是否达到上限，达到后关闭当前文件，紧接着在同一个命令中开启下一段
      */
-    fun stopRecord() {
-        if (playStatus != PlayStatus.PLAYING) {
+    private fun checkSegment(path: String) {
+        val policy = segmentPolicy ?: return
+        if (!recording || recordFilePath != path) {
             return
         }
-        hatomPlayer.stopRecord()
+        val elapsed = SystemClock.elapsedRealtime() - segmentStartElapsed
+        val full = (policy.maxDurationSec > 0 && elapsed >= policy.maxDurationSec * 1000L) ||
+                (policy.maxSizeBytes > 0 && File(RecordPipeline.recordingPath(path, recordMode)).length() >= policy.maxSizeBytes)
+        if (!full) {
+            return
+        }
+        val player = hatomPlayer ?: return
+        val mode = recordMode
+        val nextPath = MyUtils.getLocalRecordPath(Utils.getApp())
+        recordFilePath = nextPath
+        segmentStartElapsed = SystemClock.elapsedRealtime()
+        commandLane.execute(PlayerCommand.RECORD, onError = { recordStartFailed(nextPath, null) }) {
+            finishRecord(player, path, mode, null)
+            beginRecord(player, nextPath, mode, null)
+        }
+    }
+
+    /**
+     * 在命令通道中关闭录像文件，关闭（需要转码时是转码结束）后记录到分段索引
+     */
+    private fun finishRecord(player: HatomPlayer, path: String, mode: RecordConvertMode, onStopped: (() -> Unit)?) {
+        player.stopRecord()
+        player.setRecordCallback(null)
+        val startTime = segmentStartTime
+        val endTime = System.currentTimeMillis()
+        RecordPipeline.dispatch(this, RecordEvent(RecordEvent.Type.STOPPED, path)) { event ->
+            recordEventCallback(event)
+            onStopped?.invoke()
+        }
+        val window = recordWindow
+        val camera = recordCamera
+        //只有分段录像记录到索引，手动录像的文件不会被配额删除
+        val segmented = segmentPolicy != null
+        if (mode == RecordConvertMode.AFTER_STOP) {
+            RecordPipeline.convert(this, RecordPipeline.recordingPath(path, mode), path, recordEventCallback) {
+                if (segmented) {
+                    RecordSegmentStore.add(window, camera, it, startTime, endTime)
+                }
+            }
+        } else if (segmented) {
+            RecordSegmentStore.add(window, camera, path, startTime, endTime)
+        }
     }
 
     /**
      * 开启预览
      */
     fun startPreview(url: String) {
+        cancelReconnect()
+        streamRequest = null
+        openPreview(url)
+    }
+
+    /**
+     * 按监控点开启预览
+     */
+    fun startPreview(request: StreamRequest) {
+        cancelReconnect()
+        streamRequest = request
+        isPlayback = false
+        resolveStreamUrl(request) { openPreview(it) }
+    }
+
+    /**
+     * 获取取流地址后再开启播放，获取期间处于加载中状态，失败时和取流失败一样处理
+     */
+    private fun resolveStreamUrl(request: StreamRequest, open: (String) -> Unit) {
+        val cache = HatomSdk.streamUrlCache ?: throw IllegalStateException("StreamUrlResolver is not set")
+        val serial = ++resolveSerial
+        stateMachine.moveTo(PlayerState.CONNECTING)
+        cache.get(request) { _, url ->
+            if (serial != resolveSerial || stateMachine.state != PlayerState.CONNECTING) {
+                return@get
+            }
+            if (url == null) {
+                onPlayFailed("-1")
+            } else {
+                open(url)
+            }
+        }
+    }
+
+    private fun openPreview(url: String) {
         playUrl = url
+        isPlayback = false
+        sessionRecorder.begin(url, false)
         playConfig.apply {
             this.secretKey = null
             this.privateData = smartDetect
-            this.hardDecode = hardDecode
             this.waterConfig = null
+            this.qualityType = quality.stream
+        }
+        acquireDecodeGrant()
+        val player = obtainPlayer()
+        surfaceTexture?.let { player.setSurfaceTexture(it) }
+        player.setPlayStatusCallback(this)
+        stateMachine.moveTo(PlayerState.CONNECTING)
+
+
+        val url = playUrl
+        commandLane.execute(PlayerCommand.START, onError = {
+            onPlayerStatus(PlayCallback.Status.FAILED, "-1")
+        }) {
+            nativeStarted = true
+            player.setPlayConfig(playConfig)
+            player.setDataSource(url, null)
+            sessionRecorder.markDataSourceSet()
+            player.start()
+            sessionRecorder.markStartReturned()
+        }
+    }
+
+    /**
+     * 从播放器池借出播放器，已经借出的直接复用
+     */
+    private fun obtainPlayer(): HatomPlayer {
+        return hatomPlayer ?: HatomPlayerPool.acquire().also {
+            hatomPlayer = it
+        }
+    }
+
+    /**
+     * 画布在开启播放之后才准备好，这时再设置给播放器，之前收到的码流会接着解码
+     */
+    private fun attachSurface(surface: SurfaceTexture) {
+        if (playStatus != PlayStatus.LOADING && playStatus != PlayStatus.PLAYING) {
+            return
+        }
+        val player = hatomPlayer as? ManagedHatomPlayer ?: return
+        if (player.isSurfaceAttached()) {
+            return
+        }
+        commandLane.execute(PlayerCommand.ATTACH_SURFACE) {
+            player.setSurfaceTexture(surface)
+        }
+    }
+
+    /**
+     * 从全局解码预算申请解码资源，硬解名额不够时退回软解
+     */
+    private fun acquireDecodeGrant() {
+        val grant = DecodeBudget.acquire(this, hardDecode, decodeFocused, decodeGrantListener)
+        decodeGrant = grant
+        playConfig.hardDecode = grant.hardDecode
+    }
+
+    /**
+     * 更新焦点状态，焦点窗口会分到更多的解码线程，非焦点窗口在预算不足时降低帧率
+     */
+    fun setDecodeFocused(focused: Boolean) {
+        if (decodeFocused == focused) {
+            return
         }
-        hatomPlayer.setSurfaceTexture(surfaceTexture)
-        hatomPlayer.setPlayStatusCallback(this)
-        playStatus = PlayStatus.LOADING
+        decodeFocused = focused
+        DecodeBudget.updateFocus(this, focused)
+    }
 
+    /**
+     * 把解码线程数和期待帧率设置给播放器，仅在软解下生效
+     */
+    private fun applyDecodeGrant(grant: DecodeGrant) {
+        if (grant.hardDecode) {
+            return
+        }
+        val player = hatomPlayer ?: return
+        val rate = effectiveFrameRate(grant)
+        commandLane.execute(PlayerCommand.DECODE_CONFIG) {
+            //没有分到线程时按播放库最少的1个线程解码，靠降低帧率减少占用
+            player.setDecodeThreadNum(grant.decodeThreadNum.coerceAtLeast(1))
+            //没有限制时恢复成码流帧率
+            val expected = if (rate > 0) rate else player.frameRate.toFloat()
+            if (expected > 0) {
+                player.setExpectedFrameRate(expected)
+            }
+        }
+    }
 
-       val task = Observable.create<Boolean> {
-            hatomPlayer.setPlayConfig(playConfig)
-            hatomPlayer.setDataSource(playUrl, null)
-            hatomPlayer.start()
-            it.onNext(true)
-        }.transformMain().subscribe({
-        },{
-           it.printStackTrace()
-           onPlayerStatus(PlayCallback.Status.FAILED, "-1")
-       })
-       addTask(task)
+    /**
+     * 调用方设置的期待帧率和解码预算限制的帧率取较小值
+     */
+    private fun effectiveFrameRate(grant: DecodeGrant?): Float {
+        val limit = grant?.expectedFrameRate ?: 0f
+        if (limit <= 0) {
+            return userFrameRate
+        }
+        return if (userFrameRate <= 0 || userFrameRate > limit) limit else userFrameRate
+    }
 
+    /**
+     * 是否处于预连接状态，只保持取流不解码
+     */
+    fun isDecodeSuspended(): Boolean {
+        return (hatomPlayer as? ManagedHatomPlayer)?.isDecodeSuspended() ?: false
+    }
 
+    /**
+     * 预连接：正在播放的窗口暂停解码，已经停止的窗口重新取流但不解码
+     *
+     * @return 是否进入了预连接状态
+     */
+    fun preConnect(): Boolean {
+        if (playStatus != PlayStatus.PLAYING && playStatus != PlayStatus.LOADING) {
+            val request = streamRequest
+            if (request != null) {
+                //只用缓存中的地址，没有时不预连接，等显示时再取流
+                val url = HatomSdk.streamUrlCache?.getCached(request) ?: return false
+                cancelReconnect()
+                openPreview(url)
+            } else {
+                if (playUrl.isEmpty()) {
+                    return false
+                }
+                startPreview(playUrl)
+            }
+        }
+        val player = hatomPlayer as? ManagedHatomPlayer ?: return false
+        player.setDecodeSuspended(true)
+        return true
     }
 
-    private fun addTask(task: Disposable?) {
-        task?.let {
-            tasks.add(task)
+    /**
+     * 结束预连接，恢复解码
+     *
+     * @return 之前是否处于预连接状态
+     */
+    fun resumeDecode(): Boolean {
+        val player = hatomPlayer as? ManagedHatomPlayer ?: return false
+        if (!player.isDecodeSuspended()) {
+            return false
+        }
+        sessionRecorder.resetFrameGap()
+        //缓存的码流在命令通道中送给解码器，不占用主线程
+        commandLane.execute(PlayerCommand.DECODE_CONFIG) {
+            player.setDecodeSuspended(false)
         }
+        return true
     }
 
     /**
@@ -175,113 +656,193 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
      */
     fun changeStream(quality: Quality, url: String) {
         playUrl = url
+        this.quality = quality
         playConfig.apply {
             this.secretKey = null
             this.privateData = smartDetect
-            this.hardDecode = hardDecode
             this.waterConfig = null
         }
-        hatomPlayer.setSurfaceTexture(surfaceTexture)
-        hatomPlayer.setPlayStatusCallback(this)
-        playStatus = PlayStatus.LOADING
-
-        val task = Observable.create<Boolean>{
-            hatomPlayer.setPlayConfig(playConfig)
-            hatomPlayer.setDataSource(playUrl, null)
-            hatomPlayer.changeStream(quality)
-            it.onNext(true)
-        }.transformMain().subscribe({},{
-            it.printStackTrace()
+        acquireDecodeGrant()
+        val player = obtainPlayer()
+        surfaceTexture?.let { player.setSurfaceTexture(it) }
+        player.setPlayStatusCallback(this)
+        stateMachine.moveTo(PlayerState.CONNECTING)
+
+        val url = playUrl
+        commandLane.execute(PlayerCommand.CHANGE_STREAM, onError = {
             onPlayerStatus(PlayCallback.Status.FAILED, "-1")
-        })
-        addTask(task)
+        }) {
+            nativeStarted = true
+            player.setPlayConfig(playConfig)
+            player.setDataSource(url, null)
+            player.changeStream(quality)
+        }
+    }
+
+    /**
+     * 播放中只切换码流类型，不改变播放地址
+     */
+    fun changeQuality(quality: Quality) {
+        if (this.quality == quality) {
+            return
+        }
+        this.quality = quality
+        if (playStatus != PlayStatus.PLAYING) {
+            //还没播放成功时只记录，下次开启预览时生效
+            return
+        }
+        val player = hatomPlayer ?: return
+        commandLane.execute(PlayerCommand.CHANGE_STREAM) {
+            player.changeStream(quality)
+        }
     }
 
     /**
      * 停止播放
      */
     fun stopPlay() {
-        if (playStatus == PlayStatus.IDLE || playStatus == PlayStatus.STOP) return
-        playStatus = PlayStatus.STOP
+        val active = playStatus == PlayStatus.LOADING || playStatus == PlayStatus.PLAYING ||
+                playStatus == PlayStatus.RECONNECTING
+        cancelReconnect()
+        releasePlay()
+        if (active) {
+            _events.tryEmit(PlayResult(status = PlayCallback.Status.FINISH, extraCode = PlayResult.STOPPED))
+        }
+    }
+
+    /**
+     * 等待之前提交的播放器命令都执行完，例如停止播放后等待播放器真正关闭
+     */
+    internal suspend fun awaitCommands() {
+        suspendCancellableCoroutine<Unit> { continuation ->
+            commandLane.execute(PlayerCommand.SYNC) {
+                continuation.resume(Unit)
+            }
+        }
+    }
 
-        val task = Observable.create<Boolean>{
-            hatomPlayer.stop()
-            it.onNext(true)
-        }.transformMain().subscribe({},{
-            it.printStackTrace()
-        })
-        addTask(task)
 
+    /**
+     * 停止播放并归还播放器，不影响自动重连
+     */
+    private fun releasePlay() {
+        if (stateMachine.isIn(PlayerState.IDLE, PlayerState.STOPPING, PlayerState.STOPPED)) return
+        stateMachine.moveTo(PlayerState.STOPPING)
+        seekCoalescer.reset()
+        sessionRecorder.finish()
+        BitrateMeter.unregister(this)
+        PlayStatusPoller.unregister(this)
+        bitrate = null
+        DecodeBudget.release(this)
+        decodeGrant = null
+        val player = hatomPlayer
+        if (player == null) {
+            recording = false
+            stateMachine.moveTo(PlayerState.STOPPING, PlayerState.STOPPED)
+            return
+        }
+        hatomPlayer = null
+        //播放失败或者被停止时先关闭录像文件，录像命令不会被停止命令丢弃
+        if (recording) {
+            recording = false
+            val path = recordFilePath
+            val mode = recordMode
+            commandLane.execute(PlayerCommand.RECORD) {
+                finishRecord(player, path, mode, null)
+            }
+        }
+
+        //还没执行的开启、切换、拖动命令会被通道直接丢弃
+        commandLane.execute(PlayerCommand.STOP) {
+            try {
+                //开启命令被丢弃时，播放器没有开启过，不需要调用停止
+                if (nativeStarted) {
+                    nativeStarted = false
+                    player.stop()
+                }
+            } finally {
+                //停止完成后归还给播放器池
+                HatomPlayerPool.release(player)
+                stateMachine.moveTo(PlayerState.STOPPING, PlayerState.STOPPED)
+            }
+        }
     }
 
     /**
      * 开启对讲
      */
     fun openVoiceTalk(url: String) {
-        hatomPlayer.setVoiceStatusCallback(this@PlayViewModel)
-        val task = Observable.create<Boolean>{
-            hatomPlayer.setPlayConfig(playConfig)
-            hatomPlayer.setVoiceDataSource(url, null)
-            hatomPlayer.startVoiceTalk()
-            it.onNext(true)
-        }.transformMain().subscribe({},{
-            it.printStackTrace()
-        })
-        addTask(task)
-
+        val player = hatomPlayer ?: return
+        player.setVoiceStatusCallback(this@PlayViewModel)
+        commandLane.execute(PlayerCommand.OPEN_VOICE_TALK) {
+            player.setPlayConfig(playConfig)
+            player.setVoiceDataSource(url, null)
+            player.startVoiceTalk()
+        }
     }
 
     /**
      * 关闭对讲
      */
     fun closeVoiceTalk() {
-        val task = Observable.create<Boolean>{
-            hatomPlayer.stopVoiceTalk()
-            it.onNext(true)
-        }.transformMain().subscribe({},{
-            it.printStackTrace()
-        })
-        addTask(task)
-
+        val player = hatomPlayer ?: return
+        commandLane.execute(PlayerCommand.CLOSE_VOICE_TALK) {
+            player.stopVoiceTalk()
+        }
     }
 
     /**
      * 开启回放
      */
     fun startPlayback(url: String, startTime: Long, endTime: Long) {
+        cancelReconnect()
+        streamRequest = null
+        openPlayback(url, startTime, endTime)
+    }
+
+    /**
+     * 按监控点开启回放
+     */
+    fun startPlayback(request: StreamRequest, startTime: Long, endTime: Long) {
+        cancelReconnect()
+        streamRequest = request
+        isPlayback = true
+        this.startTime = startTime
+        this.endTime = endTime
+        resolveStreamUrl(request) { openPlayback(it, startTime, endTime) }
+    }
+
+    private fun openPlayback(url: String, startTime: Long, endTime: Long) {
         playUrl = url
+        isPlayback = true
+        sessionRecorder.begin(url, true)
         this.startTime = startTime
         this.endTime = endTime
         playConfig.apply {
             this.secretKey = null
             this.privateData = smartDetect
-            this.hardDecode = hardDecode
             this.waterConfig = null
         }
+        acquireDecodeGrant()
         val header = HashMap<String, String>()
-        formatCalendar.timeInMillis = startTime
-        header[HeaderParams.START_TIME] =
-            CalendarUtil.calendarToyyyy_MM_dd_T_HH_mm_SSSZ(formatCalendar)
-        formatCalendar.timeInMillis = endTime
-        header[HeaderParams.END_TIME] =
-            CalendarUtil.calendarToyyyy_MM_dd_T_HH_mm_SSSZ(formatCalendar)
-        hatomPlayer.setSurfaceTexture(surfaceTexture)
-        hatomPlayer.setPlayStatusCallback(this)
-        playStatus = PlayStatus.LOADING
-
-        val task = Observable.create<Boolean>{
-            hatomPlayer.setPlayConfig(playConfig)
-            hatomPlayer.setDataSource(playUrl, header)
-            hatomPlayer.start()
-            it.onNext(true)
-        }.transformMain().subscribe({},{cause->
-            cause.printStackTrace()
+        header[HeaderParams.START_TIME] = formatTime(startTime)
+        header[HeaderParams.END_TIME] = formatTime(endTime)
+        val player = obtainPlayer()
+        surfaceTexture?.let { player.setSurfaceTexture(it) }
+        player.setPlayStatusCallback(this)
+        stateMachine.moveTo(PlayerState.CONNECTING)
+
+        val url = playUrl
+        commandLane.execute(PlayerCommand.START, onError = {
             onPlayerStatus(PlayCallback.Status.FAILED, "-1")
-        })
-        addTask(task)
-
-
-
+        }) {
+            nativeStarted = true
+            player.setPlayConfig(playConfig)
+            player.setDataSource(url, header)
+            sessionRecorder.markDataSourceSet()
+            player.start()
+            sessionRecorder.markStartReturned()
+        }
     }
 
     /**
@@ -291,27 +852,30 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return -1L
         }
-        return hatomPlayer.osdTime
+        return hatomPlayer?.osdTime ?: -1L
     }
 
     /**
      * 获取总流量
      */
-    fun getTotalTraffic(): Long {
+    override fun getTotalTraffic(): Long {
         if (playStatus != PlayStatus.PLAYING) {
             return 0L
         }
-        return hatomPlayer.totalTraffic
+        return hatomPlayer?.totalTraffic ?: 0L
     }
 
     /**
      * 暂停
      */
     fun pause(): Boolean {
-        if (playStatus != PlayStatus.PLAYING) {
+        if (!stateMachine.isIn(PlayerState.PLAYING, PlayerState.SEEKING)) {
             return false
         }
-        hatomPlayer.pause()
+        val player = hatomPlayer ?: return false
+        player.pause()
+        sessionRecorder.resetFrameGap()
+        stateMachine.moveTo(PlayerState.PAUSED)
         return true
     }
 
@@ -322,7 +886,10 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        hatomPlayer.resume()
+        val player = hatomPlayer ?: return false
+        sessionRecorder.resetFrameGap()
+        player.resume()
+        stateMachine.moveTo(PlayerState.PAUSED, PlayerState.PLAYING)
         return true
     }
 
@@ -333,7 +900,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return
         }
-        hatomPlayer.playbackSpeed = speed
+        hatomPlayer?.playbackSpeed = speed
     }
 
     /**
@@ -343,31 +910,59 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return PlaybackSpeed.NORMAL
         }
-        return hatomPlayer.playbackSpeed ?: PlaybackSpeed.NORMAL
+        return hatomPlayer?.playbackSpeed ?: PlaybackSpeed.NORMAL
     }
 
     /**
      * 拖动回放
      */
     fun seekPlayback(seekTime: Long) {
-        if (playStatus == PlayStatus.IDLE) {
+        //还没出图或者已经停止时不能拖动
+        if (hatomPlayer == null || !stateMachine.moveTo(PlayerState.SEEKING)) {
             return
         }
+        //拖动过程中的多次请求会被合并，只执行最新的目标时间
+        seekCoalescer.request(seekTime)
+    }
 
-        val task = Observable.create<Boolean>{
-            formatCalendar.timeInMillis = seekTime
-            hatomPlayer.seekPlayback(
-                CalendarUtil.calendarToyyyy_MM_dd_T_HH_mm_SSSZ(
-                    formatCalendar
-                )
-            )
-            it.onNext(true)
-        }.transformMain().subscribe({},{cause->
-            cause.printStackTrace()
-        })
-        addTask(task)
+    /**
+     * 是否还有拖动在执行或者等待执行
+     */
+    fun isSeeking(): Boolean {
+        return seekCoalescer.isSeeking()
+    }
 
+    /**
+     * 执行一次拖动，可能在播放回调线程中调用
+     */
+    private fun dispatchSeek(seekTime: Long) {
+        val player = hatomPlayer
+        if (player == null) {
+            seekCoalescer.reset()
+            return
+        }
+        val seekTimeText = formatTime(seekTime)
+        sessionRecorder.resetFrameGap()
+        commandLane.execute(PlayerCommand.SEEK, onError = {
+            //本次拖动失败，继续执行等待中的拖动
+            seekCoalescer.onSeekFinished()
+            if (!seekCoalescer.isSeeking()) {
+                stateMachine.moveTo(PlayerState.SEEKING, PlayerState.PLAYING)
+                _events.tryEmit(
+                    PlayResult(
+                        status = PlayCallback.Status.FAILED,
+                        errorCode = "-1",
+                        extraCode = PlayResult.PLAYBACK_SEEK_FAILED
+                    )
+                )
+            }
+        }) {
+            player.seekPlayback(seekTimeText)
+        }
+    }
 
+    private fun formatTime(time: Long): String {
+        return CalendarUtil.longToyyyy_MM_dd_T_HH_mm_SSSZ(time)
     }
 
     /**
@@ -377,7 +972,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        return (hatomPlayer.openDigitalZoom(original, current) ?: -1) == 0
+        return (hatomPlayer?.openDigitalZoom(original, current) ?: -1) == 0
     }
 
     /**
@@ -387,7 +982,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        return (hatomPlayer.closeDigitalZoom() ?: -1) == 0
+        return (hatomPlayer?.closeDigitalZoom() ?: -1) == 0
     }
 
     /**
@@ -397,7 +992,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        return (hatomPlayer.setFishEyeEnable(isOpen) ?: -1) == 0
+        return (hatomPlayer?.setFishEyeEnable(isOpen) ?: -1) == 0
     }
 
     /**
@@ -411,7 +1006,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        return (hatomPlayer.setFishEyeMode(correctType, placeType) ?: -1) == 0
+        return (hatomPlayer?.setFishEyeMode(correctType, placeType) ?: -1) == 0
     }
 
     /**
@@ -426,7 +1021,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return
         }
-        hatomPlayer.setOriginalFECParam(originalX, originalY, textureViewWidth, textureViewHeight)
+        hatomPlayer?.setOriginalFECParam(originalX, originalY, textureViewWidth, textureViewHeight)
     }
 
     /**
@@ -442,7 +1037,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        return hatomPlayer.handleFishEyeCorrect(isZoom, zoom, zoom3D, curX, curY) ?: -1 == 0
+        return hatomPlayer?.handleFishEyeCorrect(isZoom, zoom, zoom3D, curX, curY) ?: -1 == 0
     }
 
 
@@ -453,7 +1048,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return false
         }
-        return (hatomPlayer.enableAudio(isOpen) ?: -1) == 0
+        return (hatomPlayer?.enableAudio(isOpen) ?: -1) == 0
     }
 
     /**
@@ -464,7 +1059,7 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playStatus != PlayStatus.PLAYING) {
             return -1
         }
-        return hatomPlayer.getFrameRate()
+        return hatomPlayer?.frameRate ?: -1
     }
 
     /**
@@ -478,23 +1073,76 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         if (playConfig.hardDecode) {
             return false
         }
-        //这里是设置解码线程数，在解码卡顿时，可以使用此方法增加解码线程，线程数支持1-8
-        //仅在软解下生效
-        hatomPlayer.setDecodeThreadNum(8)
-        return hatomPlayer.setExpectedFrameRate(rate) == 0
+        val player = hatomPlayer ?: return false
+        userFrameRate = rate
+        val grant = decodeGrant
+        //解码线程数由全局解码预算分配，仅在软解下生效
+        player.setDecodeThreadNum(grant?.decodeThreadNum ?: 1)
+        return player.setExpectedFrameRate(effectiveFrameRate(grant)) == 0
+    }
+
+    /**
+     * 最近一次采样的播放状态，还没有采样时为空
+     */
+    val latestStatus: PlayStatusSnapshot?
+        get() = _statusSnapshot.value
+
+    override fun sampleStatus(sampleTime: Long): PlayStatusSnapshot {
+        val player = hatomPlayer
+        if (playStatus != PlayStatus.PLAYING || player == null) {
+            return PlayStatusSnapshot(-1L, 0L, 0L, -1, sampleTime)
+        }
+        return PlayStatusSnapshot(
+            player.osdTime, player.totalTraffic, player.playedTime, player.frameRate, sampleTime
+        )
+    }
+
+    override fun onStatusSampled(snapshot: PlayStatusSnapshot) {
+        _statusSnapshot.value = snapshot
+    }
+
+    /**
+     * 画布刷新了一帧，用于统计出图耗时和卡顿
+     */
+    fun onFrameRendered() {
+        sessionRecorder.onFrame()
     }
 
     /**播放回调**********************************************/
     override fun onPlayerStatus(status: PlayCallback.Status, errorCode: String) {
+        mainHandler.post { handlePlayerStatus(status, errorCode) }
+    }
+
+    private fun handlePlayerStatus(status: PlayCallback.Status, errorCode: String) {
         when (status) {
             PlayCallback.Status.SUCCESS -> {
-                if (playStatus != PlayStatus.PLAYING) {
-                    //播放成功
-                    playStatus = PlayStatus.PLAYING
-                    _previewResult.postValue(PlayResult(status = PlayCallback.Status.SUCCESS))
-                } else {
+                val state = stateMachine.state
+                if (state == PlayerState.CONNECTING) {
+                    //播放成功，停止后才收到的回调会被状态机拒绝
+                    if (!stateMachine.moveTo(PlayerState.CONNECTING, PlayerState.PLAYING)) {
+                        return
+                    }
+                    sessionRecorder.markSuccess()
+                    if (reconnectAttempt > 0) {
+                        reconnectAttempt = 0
+                        ReconnectScheduler.onResult(this, true)
+                    }
+                    bitrate = BitrateMeter.register(this)
+                    PlayStatusPoller.register(this)
+                    decodeGrant?.let { applyDecodeGrant(it) }
+                    dispatchResult(PlayResult(status = PlayCallback.Status.SUCCESS))
+                } else if (state == PlayerState.PLAYING || state == PlayerState.SEEKING || state == PlayerState.PAUSED) {
                     //此时，应该是拖动了时间条后，再次播放成功
-                    _previewResult.postValue(
+                    val latency = seekCoalescer.onSeekFinished()
+                    if (latency >= 0) {
+                        _seekLatency.postValue(latency)
+                    }
+                    //还有等待中的拖动时先不回调，等最终位置出图后再回调
+                    if (seekCoalescer.isSeeking()) {
+                        return
+                    }
+                    stateMachine.moveTo(PlayerState.SEEKING, PlayerState.PLAYING)
+                    dispatchResult(
                         PlayResult(
                             status = PlayCallback.Status.SUCCESS,
                             extraCode = PlayResult.PLAYBACK_SEEK_SUCCESS
@@ -503,35 +1151,24 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
                 }
             }
             PlayCallback.Status.FAILED -> {
-                //如果当前的状态为空闲或者停止，就不回调
-                if (playStatus == PlayStatus.IDLE || playStatus == PlayStatus.STOP) {
+                //如果当前的状态为空闲或者停止，就不回调；重连中收到的是旧播放器的回调，不能取消等待中的重连
+                if (isClosed()) {
                     return
                 }
                 //播放失败，先关闭播放
-                stopPlay()
-                playStatus = PlayStatus.FAIL
-                _previewResult.postValue(
-                    PlayResult(
-                        status = PlayCallback.Status.FAILED,
-                        errorCode = errorCode
-                    )
-                )
+                onPlayFailed(errorCode)
             }
             PlayCallback.Status.EXCEPTION -> {
+                //停止后才收到的异常不回调
+                if (isClosed()) {
+                    return
+                }
                 //发生异常，先关闭播放
-                stopPlay()
-                playStatus = PlayStatus.FAIL
-                _previewResult.postValue(
-                    PlayResult(
-                        status = PlayCallback.Status.FAILED,
-                        errorCode = errorCode
-                    )
-                )
+                onPlayFailed(errorCode)
             }
             PlayCallback.Status.FINISH -> {
                 stopPlay()
-                playStatus = PlayStatus.STOP
-                _previewResult.postValue(
+                dispatchResult(
                     PlayResult(
                         status = PlayCallback.Status.FINISH
                     )
@@ -540,6 +1177,111 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
         }
     }
 
+    /**
+     * 播放器已经关闭、正在重连或者已经失败，这时收到的失败和异常都不处理
+     */
+    private fun isClosed(): Boolean {
+        return stateMachine.isIn(
+            PlayerState.IDLE, PlayerState.STOPPING, PlayerState.STOPPED,
+            PlayerState.RECONNECTING, PlayerState.FAILED
+        )
+    }
+
+    /**
+     * 播放失败或者异常断开，关闭播放后按重连策略重连，不能重连时回调失败
+     */
+    private fun onPlayFailed(errorCode: String) {
+        sessionRecorder.markError(errorCode)
+        //失败的取流地址不再使用，下次开启或重连时重新获取
+        streamRequest?.let { HatomSdk.streamUrlCache?.invalidate(it) }
+        //主动停止后才收到的失败不重连
+        val active = playStatus == PlayStatus.LOADING || playStatus == PlayStatus.PLAYING
+        releasePlay()
+        //只从这次关闭进入重连，停止命令可能已经在命令通道中执行完
+        val reconnecting = active && (stateMachine.moveTo(PlayerState.STOPPING, PlayerState.RECONNECTING) ||
+                stateMachine.moveTo(PlayerState.STOPPED, PlayerState.RECONNECTING))
+        if (reconnecting && scheduleReconnect()) {
+            dispatchResult(
+                PlayResult(
+                    status = PlayCallback.Status.FAILED,
+                    errorCode = errorCode,
+                    extraCode = PlayResult.RECONNECTING
+                )
+            )
+            return
+        }
+        if (reconnecting) {
+            stateMachine.moveTo(PlayerState.RECONNECTING, PlayerState.FAILED)
+        } else {
+            stateMachine.moveTo(PlayerState.FAILED)
+        }
+        dispatchResult(
+            PlayResult(
+                status = PlayCallback.Status.FAILED,
+                errorCode = errorCode
+            )
+        )
+    }
+
+    /**
+     * 安排下一次重连
+     *
+     * @return false-超过重连次数或者监控点熔断中
+     */
+    private fun scheduleReconnect(): Boolean {
+        if (reconnectAttempt > 0) {
+            //上一次重连失败
+            ReconnectScheduler.onResult(this, false)
+        }
+        val policy = reconnectPolicy
+        //按监控点取流时每次的地址不同，用监控点熔断
+        val key = streamRequest?.cameraId ?: playUrl
+        if (key.isEmpty() || reconnectAttempt >= policy.maxAttempts) {
+            reconnectAttempt = 0
+            return false
+        }
+        reconnectAttempt++
+        if (!ReconnectScheduler.schedule(this, key, policy.delayFor(reconnectAttempt), reconnectTask)) {
+            reconnectAttempt = 0
+            return false
+        }
+        return true
+    }
+
+    /**
+     * 退避结束并且拿到重连名额后，在主线程按原来的方式重新开启播放，回放从断开时的位置继续，
+     * 按监控点取流时重新获取取流地址
+     */
+    private fun reconnect() {
+        if (playStatus != PlayStatus.RECONNECTING) {
+            cancelReconnect()
+            return
+        }
+        val request = streamRequest
+        if (isPlayback) {
+            val osdTime = latestStatus?.osdTime ?: -1L
+            val resumeTime = if (osdTime in startTime until endTime) osdTime else startTime
+            if (request != null) {
+                resolveStreamUrl(request) { openPlayback(it, resumeTime, endTime) }
+            } else {
+                openPlayback(playUrl, resumeTime, endTime)
+            }
+        } else {
+            if (request != null) {
+                resolveStreamUrl(request) { openPreview(it) }
+            } else {
+                openPreview(playUrl)
+            }
+        }
+    }
+
+    private fun cancelReconnect() {
+        reconnectAttempt = 0
+        //正在获取的取流地址不再使用
+        resolveSerial++
+        ReconnectScheduler.cancel(this)
+    }
+
     /**对讲回调**********************************************/
     override fun onTalkStatus(status: PlayCallback.Status, errorCode: String) {
         when (status) {
@@ -574,13 +1316,18 @@ class PlayViewModel : ViewModel(), PlayCallback.PlayStatusCallback, PlayCallback
     }
 
 
+    /**
+     * 发送播放结果，LiveData和事件流都会收到
+     */
+    private fun dispatchResult(result: PlayResult) {
+        _previewResult.postValue(result)
+        _events.tryEmit(result)
+    }
+
     override fun onCleared() {
-        for (task in tasks) {
-            if (!task.isDisposed){
-                task.dispose()
-            }
-        }
+        mainHandler.removeCallbacksAndMessages(null)
+        stopPlay()
         super.onCleared()
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.fencer.hatomsdk
 
 import android.content.Context
+import android.graphics.Bitmap
 import android.graphics.SurfaceTexture
 import android.media.AudioManager
 import android.util.AttributeSet
@@ -8,8 +9,10 @@ import android.view.LayoutInflater
 import android.view.TextureView
 import android.view.View
 import android.view.ViewGroup
+import android.widget.ImageView
 import android.widget.ProgressBar
 import android.widget.TextView
+import androidx.lifecycle.LiveData
 import androidx.lifecycle.Observer
 import com.fencer.hatomsdk.window.PlayTextureView
 import com.fencer.hatomsdk.window.WindowItemView
@@ -20,6 +23,7 @@ import com.hikvision.hatomplayer.core.PlaybackSpeed
 import com.hikvision.hatomplayer.core.Quality
 import java.text.DecimalFormat
 import java.text.MessageFormat
+import java.util.concurrent.Executor
 
 /**
  * <p> 播放窗口View </p>
@@ -33,6 +37,7 @@ class ViewPlayWindowBinding{
 
     lateinit var  textureView: PlayTextureView
     lateinit var  windowBg:View
+    lateinit var  lastFrameView: ImageView
     lateinit var  loadingView : ProgressBar
     lateinit var  hintText :TextView
     lateinit var  zoomText:TextView
@@ -45,6 +50,7 @@ class ViewPlayWindowBinding{
             binding.root = inflater.inflate(R.layout.view_play_window,parent, attached)
             binding.textureView = binding.root.findViewById(R.id.textureView)
             binding.windowBg =binding.root.findViewById(R.id.windowBg)
+            binding.lastFrameView = binding.root.findViewById(R.id.lastFrameView)
             binding.loadingView =binding.root.findViewById(R.id.loadingView)
             binding.hintText =binding.root.findViewById(R.id.hintText)
             binding.zoomText=binding.root.findViewById(R.id.zoomText)
@@ -77,16 +83,38 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     /*是否开启鱼眼模式*/
     var isOpenFishEyeMode = false
 
-    /*上一秒总流量*/
+    /*上一秒总流量，码率可以直接使用getBitrate()*/
     var lastTotalTraffic = 0L
 
     /*是否正在Seek*/
     var isSeeking = false
 
+    /*正在显示或者读取中的缓存画面*/
+    private var lastFrameKey: String? = null
+
+    /*停止播放时保留的最后一帧，窗口大小不变时一直复用*/
+    private var freezeFrame: Bitmap? = null
+
+    /*最后一帧对应的画面缓存key*/
+    private var freezeFrameKey: String? = null
+
+    /*回收时保留的画布，重新添加到WindowGroup后直接复用*/
+    private var retainedSurface: SurfaceTexture? = null
+
+    /*是否正在被回收，回收时画布销毁后不释放*/
+    private var isRecycling = false
+
     /*viewModel这里直接new，每一个播放窗口对应一个*/
     private val viewModel by lazy {
         PlayViewModel()
     }
+
+    /**
+     * 协程播放接口，开启播放、拖动、录像可以在调用方的协程作用域中挂起等待结果
+     */
+    val playerSession by lazy {
+        PlayerSession(this, viewModel)
+    }
     constructor(context: Context) : this(context, null)
 
     constructor(context: Context, attrs: AttributeSet?) : super(context, attrs) {
@@ -131,9 +159,17 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     override fun onAttachedToWindow() {
         super.onAttachedToWindow()
         viewBinding.textureView.surfaceTextureListener = this
+        //从回收池取出的窗口复用之前的画布
+        retainedSurface?.let {
+            retainedSurface = null
+            isRecycling = false
+            viewBinding.textureView.setSurfaceTexture(it)
+            viewModel.surfaceTexture = it
+        }
         //添加监听
         viewModel.playResult.observeForever(playObserver)
         viewModel.talkResult.observeForever(talkObserver)
+        viewModel.recordEvent.observeForever(recordObserver)
     }
 
     override fun onDetachedFromWindow() {
@@ -141,24 +177,82 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         //去除监听
         viewBinding.textureView.surfaceTextureListener = null
         viewModel.surfaceTexture = null
+        removeCallbacks(preConnectTimeoutTask)
     }
 
     override fun setUserVisibleHint(isVisibleToUser: Boolean) {
         super.setUserVisibleHint(isVisibleToUser)
         //这里回调了窗口当前是否对用户可见，多窗口切换时，可以用来停止播放、恢复播放
         if (isVisibleToUser) {
+            removeCallbacks(preConnectTimeoutTask)
+            //预连接中的窗口直接恢复解码，不需要重新取流
+            if (viewModel.resumeDecode()) {
+                if (viewModel.getPlayStatus() == PlayStatus.PLAYING) {
+                    showPlaySuccess()
+                } else {
+                    showPlayLoading()
+                }
+                return
+            }
             if (viewModel.getPlayStatus() != PlayStatus.IDLE) {
                 againPlay()
             }
         } else {
+            //相邻页的窗口只暂停解码
+            if (preConnectHint && startPreConnect()) {
+                return
+            }
             //不可见时，关闭播放
-            if (viewModel.getPlayStatus() == PlayStatus.PLAYING || viewModel.getPlayStatus() == PlayStatus.LOADING) {
+            if (isPlayActive()) {
+                snapshotFreezeFrame()
                 //停止播放
                 stopPlay()
             }
         }
     }
 
+    override fun setPreConnectHint(isPreConnect: Boolean) {
+        super.setPreConnectHint(isPreConnect)
+        //只处理不可见的窗口，可见窗口的播放由setUserVisibleHint控制
+        if (userVisibleHint) {
+            return
+        }
+        if (isPreConnect) {
+            startPreConnect()
+        } else {
+            removeCallbacks(preConnectTimeoutTask)
+            if (isPlayActive()) {
+                stopPlay()
+            }
+        }
+    }
+
+    /**
+     * 预连接超时后关闭取流
+     */
+    private val preConnectTimeoutTask = Runnable {
+        if (!userVisibleHint) {
+            stopPlay()
+        }
+    }
+
+    /**
+     * 开始预连接，只有预览窗口支持，回放窗口取流会改变回放进度
+     */
+    private fun startPreConnect(): Boolean {
+        if (!isPreviewWindow || isVoiceTalking || isRecording) {
+            return false
+        }
+        if (!viewModel.preConnect()) {
+            return false
+        }
+        showPlayLoading()
+        val keepAliveTime = windowGroup?.windowGroupAdapter?.preConnectKeepAliveTime ?: 0L
+        removeCallbacks(preConnectTimeoutTask)
+        postDelayed(preConnectTimeoutTask, keepAliveTime)
+        return true
+    }
+
     /**
      * 播放结果
      */
@@ -178,7 +272,11 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
             }
             PlayCallback.Status.FAILED -> {
                 isSeeking = false
-                showPlayFailed(it.errorCode)
+                if (it.extraCode == PlayResult.RECONNECTING) {
+                    showPlayReconnecting()
+                } else {
+                    showPlayFailed(it.errorCode)
+                }
             }
             PlayCallback.Status.EXCEPTION -> {
                 isSeeking = false
@@ -203,6 +301,7 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     }
 
     fun showPlayIdle() {
+        hideLastFrame()
         viewBinding.windowBg.isVisible = true
         viewBinding.hintText.isVisible = false
         viewBinding.loadingView.isVisible = false
@@ -215,9 +314,11 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         viewBinding.loadingView.isVisible = true
         viewBinding.zoomText.isVisible = false
         viewBinding.talkHintText.isVisible = false
+        showLastFrame()
     }
 
     private fun showPlaySuccess() {
+        hideLastFrame()
         viewBinding.windowBg.isVisible = false
         viewBinding.hintText.isVisible = false
         viewBinding.loadingView.isVisible = false
@@ -226,6 +327,7 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     }
 
     private fun showPlayFailed(errorCode: String) {
+        hideLastFrame()
         viewBinding.windowBg.isVisible = true
         viewBinding.hintText.isVisible = true
         viewBinding.hintText.text =
@@ -235,7 +337,26 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         viewBinding.talkHintText.isVisible = false
     }
 
+    /**
+     * 是否正在播放、加载或者等待重连，这时窗口不可见或者画布销毁需要停止播放
+     */
+    private fun isPlayActive(): Boolean {
+        val status = viewModel.getPlayStatus()
+        return status == PlayStatus.PLAYING || status == PlayStatus.LOADING || status == PlayStatus.RECONNECTING
+    }
+
+    private fun showPlayReconnecting() {
+        viewBinding.windowBg.isVisible = true
+        viewBinding.hintText.isVisible = true
+        viewBinding.hintText.text = "连接中断，正在重连..."
+        viewBinding.loadingView.isVisible = true
+        viewBinding.zoomText.isVisible = false
+        viewBinding.talkHintText.isVisible = false
+        showLastFrame()
+    }
+
     private fun showPlayEnd() {
+        hideLastFrame()
         viewBinding.windowBg.isVisible = true
         viewBinding.hintText.isVisible = true
         viewBinding.hintText.text = "回放结束"
@@ -280,6 +401,13 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         viewModel.hardDecode = isHardDecode
     }
 
+    /**
+     * 设置自动重连策略，ReconnectPolicy.DISABLED为不重连
+     */
+    fun setReconnectPolicy(policy: ReconnectPolicy) {
+        viewModel.reconnectPolicy = policy
+    }
+
     /**
      * 是否显示智能信息
      */
@@ -298,21 +426,62 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
      * 开启播放
      */
     fun startPlay(url: String, startTime: Long = 0L, endTime: Long = 0L) {
-        showPlayLoading()
         if (isPreviewWindow) {
             viewModel.startPreview(url)
         } else {
             viewModel.startPlayback(url, startTime, endTime)
         }
+        //播放结果都是异步回调，先更新地址再按新的监控点显示缓存画面
+        showPlayLoading()
+    }
+
+    /**
+     * 按监控点开启播放，取流地址通过HatomSdk.setStreamUrlResolver设置的解析获取，
+     * 令牌过期后再次显示或者重连时会重新获取
+     */
+    fun startPlay(request: StreamRequest) {
+        if (isPreviewWindow) {
+            viewModel.startPreview(request)
+        } else {
+            viewModel.startPlayback(request, request.startTime, request.endTime)
+        }
+        showPlayLoading()
+    }
+
+    override fun getStreamRequest(): StreamRequest? {
+        return viewModel.streamRequest
     }
 
     /**
-     * 码流切换
+     * 码流切换，默认使用码流分级策略选出的码流类型。
+     * 注意：之前只传url时固定切到MAIN_STREAM_HIGH，现在是窗口当前的码流类型，没有设置策略时仍然是主码流，
+     * 设置了StreamQualityPolicy后可能是子码流，需要主码流时显式传入Quality.MAIN_STREAM_HIGH
      */
-    fun changeStream(url: String) {
+    @JvmOverloads
+    fun changeStream(url: String, quality: Quality = viewModel.quality) {
         if (isPreviewWindow) {
-            viewModel.changeStream(Quality.MAIN_STREAM_HIGH, url)
+            viewModel.changeStream(quality, url)
+        }
+    }
+
+    /**
+     * 获取当前码流类型
+     */
+    fun getQuality(): Quality {
+        return viewModel.quality
+    }
+
+    /**
+     * 窗口大小或选中状态变化时，更新解码预算的焦点状态，并按码流分级策略切换主子码流；
+     * 没有设置策略时不切换，保留调用方自己选择的码流
+     */
+    override fun onWindowStateChanged(width: Int, height: Int, isSelected: Boolean, isFullScreen: Boolean) {
+        viewModel.setDecodeFocused(isSelected || isFullScreen)
+        if (!isPreviewWindow) {
+            return
         }
+        val policy = windowGroup?.windowGroupAdapter?.streamQualityPolicy ?: return
+        viewModel.changeQuality(policy.select(width, height, isSelected, isFullScreen))
     }
 
     /**
@@ -324,6 +493,17 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     }
 
     private fun againPlay() {
+        val request = viewModel.streamRequest
+        if (request != null) {
+            //重新获取取流地址，缓存中的地址没过期时直接使用
+            showPlayLoading()
+            if (isPreviewWindow) {
+                viewModel.startPreview(request)
+            } else {
+                viewModel.startPlayback(request, viewModel.startTime, viewModel.endTime)
+            }
+            return
+        }
         if (viewModel.playUrl.isEmpty()) return
         showPlayLoading()
         if (isPreviewWindow) {
@@ -363,10 +543,89 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     }
 
     /**
-     * 抓拍
+     * 抓拍，抓图文件在callback回调之后才写完，缩略图同时放进画面缓存
      */
-    fun executeCapture(): String {
-        return viewModel.capture()
+    @JvmOverloads
+    fun executeCapture(callback: CapturePipeline.Callback? = null): String {
+        return executeCapture(callback, null)
+    }
+
+    /**
+     * @param runner 不为null时抓图命令在runner中执行，整屏抓图时各窗口同时抓图
+     */
+    internal fun executeCapture(callback: CapturePipeline.Callback?, runner: Executor?): String {
+        return viewModel.capture(callback, frameCacheKey(), "win$windowSerial", runner)
+    }
+
+    /**
+     * 画面缓存的key，还没有开启过播放时为null
+     */
+    private fun frameCacheKey(): String? {
+        val camera = viewModel.streamRequest?.cameraId ?: viewModel.playUrl
+        return if (camera.isEmpty()) null else FrameCache.key(windowSerial, camera)
+    }
+
+    /**
+     * 加载中先显示停止时保留的最后一帧，没有时显示缓存的画面，都没有时仍然显示背景
+     */
+    private fun showLastFrame() {
+        val key = frameCacheKey() ?: return
+        if (key == lastFrameKey) {
+            return
+        }
+        lastFrameKey = key
+        val freeze = freezeFrame
+        if (freeze != null && key == freezeFrameKey) {
+            viewBinding.lastFrameView.setImageBitmap(freeze)
+            viewBinding.lastFrameView.isVisible = true
+            return
+        }
+        FrameCache.load(key) { loadedKey, bitmap ->
+            //读取磁盘期间已经出图或者换了监控点
+            if (bitmap != null && loadedKey == lastFrameKey) {
+                viewBinding.lastFrameView.setImageBitmap(bitmap)
+                viewBinding.lastFrameView.isVisible = true
+            }
+        }
+    }
+
+    private fun hideLastFrame() {
+        lastFrameKey = null
+        viewBinding.lastFrameView.isVisible = false
+        viewBinding.lastFrameView.setImageDrawable(null)
+    }
+
+    /**
+     * 停止播放前把TextureView当前的画面画到复用的Bitmap里，只在播放中读取，不会额外分配
+     */
+    private fun snapshotFreezeFrame() {
+        val textureView = viewBinding.textureView
+        if (!FrameSnapshotPool.enabled || viewModel.getPlayStatus() != PlayStatus.PLAYING || !textureView.isAvailable) {
+            return
+        }
+        val key = frameCacheKey() ?: return
+        val scale = FrameSnapshotPool.downscale.coerceAtLeast(1)
+        val width = textureView.width / scale
+        val height = textureView.height / scale
+        if (width <= 0 || height <= 0) {
+            return
+        }
+        var bitmap = freezeFrame
+        if (bitmap == null || bitmap.width != width || bitmap.height != height) {
+            bitmap?.let { FrameSnapshotPool.release(it) }
+            bitmap = FrameSnapshotPool.acquire(width, height)
+            freezeFrame = bitmap
+        }
+        //播放中占位图是隐藏的，这里覆盖不会影响显示
+        textureView.getBitmap(bitmap)
+        freezeFrameKey = key
+    }
+
+    private fun releaseFreezeFrame() {
+        val bitmap = freezeFrame ?: return
+        freezeFrame = null
+        freezeFrameKey = null
+        FrameSnapshotPool.release(bitmap)
     }
 
     /**
@@ -423,8 +682,10 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
      */
     fun executeRecord(): String {
         return if (!isRecording) {
+            //开启录像在后台执行，开启失败时通过recordObserver恢复
+            viewModel.recordWindow = windowSerial
             isRecording = viewModel.startRecord()
-            viewModel.recordFilePath
+            if (isRecording) viewModel.recordFilePath else ""
         } else {
             isRecording = false
             viewModel.stopRecord()
@@ -432,6 +693,22 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         }
     }
 
+    /**
+     * 录像事件，开启结果、录像时长、停止和转码进度
+     */
+    fun getRecordEvent(): LiveData<RecordEvent> {
+        return viewModel.recordEvent
+    }
+
+    /**
+     * 录像开启失败
+     */
+    private val recordObserver = Observer<RecordEvent> {
+        if (it?.type == RecordEvent.Type.START_FAILED && it.path == viewModel.recordFilePath) {
+            isRecording = false
+        }
+    }
+
     /**
      * 执行暂停或者恢复事件
      * 暂停时要将获取系统时间的定时器、剪辑视频功能和声音都要关闭
@@ -473,15 +750,30 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         if (isRecording) {
             executeRecord()
         }
-        if (isSeeking) {
-            return
+        //拖动中的请求不再丢弃，交给viewModel合并，只执行最新的位置
+        if (!isSeeking) {
+            isSeeking = true
+            viewBinding.loadingView.isVisible = true
+            viewModel.setPlaybackSpeed(PlaybackSpeed.NORMAL)
         }
-        isSeeking = true
-        viewBinding.loadingView.isVisible = true
-        viewModel.setPlaybackSpeed(PlaybackSpeed.NORMAL)
         viewModel.seekPlayback(seekTime)
     }
 
+    /**
+     * 拖动回放从开始执行到重新出图的耗时
+     */
+    fun getSeekLatency(): LiveData<Long> {
+        return viewModel.seekLatency
+    }
+
+    /**
+     * 播放中定时刷新的OSD时间、总流量、已播放时长和帧率，所有窗口共用一个定时器，
+     * 不需要再单独开定时器调用getOSDTime()、getTotalTraffic()
+     */
+    fun getStatusSnapshot(): LiveData<PlayStatusSnapshot> {
+        return viewModel.statusSnapshot
+    }
+
     /**
      * 获取总流量
      */
@@ -489,6 +781,13 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
         return viewModel.getTotalTraffic()
     }
 
+    /**
+     * 获取码率统计，播放成功后才有，文本可以直接设置给TextView，每秒刷新不创建对象
+     */
+    fun getBitrate(): BitrateMeter.Channel? {
+        return viewModel.bitrate
+    }
+
     /**
      * 获取OSD时间
      */
@@ -552,6 +851,34 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
     }
 
 
+    /**
+     * 被WindowGroup回收，停止播放并恢复成空闲状态，画布保留下来给下次复用
+     */
+    override fun onRecycled() {
+        super.onRecycled()
+        removeCallbacks(preConnectTimeoutTask)
+        stopPlay()
+        viewModel.playUrl = ""
+        viewModel.streamRequest = null
+        isSeeking = false
+        isPause = false
+        lastTotalTraffic = 0L
+        showPlayIdle()
+        releaseFreezeFrame()
+        isRecycling = true
+    }
+
+    /**
+     * 不会再被复用，释放保留的画布
+     */
+    override fun onDiscarded() {
+        super.onDiscarded()
+        isRecycling = false
+        retainedSurface?.release()
+        retainedSurface = null
+        releaseFreezeFrame()
+    }
+
     override fun isZoom(): Boolean {
         return isOpenZoom
     }
@@ -574,15 +901,26 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
 
     override fun onSurfaceTextureDestroyed(surface: SurfaceTexture): Boolean {
         surface.setOnFrameAvailableListener(null)
-        if (viewModel.getPlayStatus() == PlayStatus.PLAYING || viewModel.getPlayStatus() == PlayStatus.LOADING) {
+        if (isPlayActive()) {
+            //画布销毁前还能读取最后一帧
+            snapshotFreezeFrame()
             //停止播放
             stopPlay()
         }
+        if (isRecycling) {
+            //被回收时保留画布，返回false由我们自己释放
+            retainedSurface = surface
+            return false
+        }
         return true
     }
 
     override fun onSurfaceTextureUpdated(surface: SurfaceTexture) {
-
+        viewModel.onFrameRendered()
+        //新的画面出来后去掉占位图
+        if (lastFrameKey != null) {
+            hideLastFrame()
+        }
     }
 
 
@@ -594,4 +932,4 @@ class PlayWindowView : WindowItemView, TextureView.SurfaceTextureListener {
             visibility = if (value) View.VISIBLE else View.GONE
         }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,204 @@
+package com.fencer.hatomsdk
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * 播放器命令类型
+ */
+enum class PlayerCommand {
+    START,
+    CHANGE_STREAM,
+    SEEK,
+    DECODE_CONFIG,
+    ATTACH_SURFACE,
+    STOP,
+    OPEN_VOICE_TALK,
+    CLOSE_VOICE_TALK,
+    RECORD,
+    CAPTURE,
+
+    /*不操作播放器，只用来等待之前的命令执行完*/
+    SYNC;
+
+    /**
+     * 收到停止命令时，还没执行的这类命令直接丢弃
+     */
+    internal val droppedByStop: Boolean
+        get() = this == START || this == CHANGE_STREAM || this == SEEK ||
+                this == DECODE_CONFIG || this == ATTACH_SURFACE
+}
+
+
+/**
+ * <p> 播放器命令通道 </p>
+ * 每个播放器一条串行通道，同一个播放器的命令严格按提交顺序执行，
+ * 所有通道共用一个有界线程池，16分屏快速翻页时也不会无限制地创建IO线程
+ */
+class PlayerCommandLane(private val name: String) {
+
+    /**
+     * 命令执行情况回调，在执行命令的线程回调
+     */
+    interface CommandListener {
+        /**
+         * @param waitMs    命令在通道中排队的时间
+         * @param executeMs 命令执行耗时
+         * @param queueDepth 命令执行完成后通道中剩余的命令数
+         */
+        fun onCommandFinished(lane: String, command: PlayerCommand, waitMs: Long, executeMs: Long, queueDepth: Int)
+
+        /**
+         * 命令还没执行就被丢弃
+         */
+        fun onCommandDropped(lane: String, command: PlayerCommand)
+    }
+
+    private class Task(
+        val command: PlayerCommand,
+        val block: () -> Unit,
+        val onError: ((Throwable) -> Unit)?,
+        val runner: Executor?,
+        val enqueueTime: Long
+    )
+
+    private val pending = ArrayDeque<Task>()
+
+    private var active = false
+
+    private val drainTask = Runnable { drain() }
+
+    /**
+     * 提交一个命令，命令在共享线程池中执行，失败时onError在主线程回调
+     *
+     * @param runner 不为null时这个命令改在runner中执行，仍然和通道中的其他命令按顺序执行，
+     *               整屏抓图时各窗口同时抓图，不受共享线程池大小的限制
+     */
+    fun execute(
+        command: PlayerCommand,
+        onError: ((Throwable) -> Unit)? = null,
+        runner: Executor? = null,
+        block: () -> Unit
+    ) {
+        val dropped = mutableListOf<PlayerCommand>()
+        synchronized(this) {
+            if (command == PlayerCommand.STOP) {
+                val iterator = pending.iterator()
+                while (iterator.hasNext()) {
+                    val task = iterator.next()
+                    if (task.command.droppedByStop) {
+                        iterator.remove()
+                        dropped.add(task.command)
+                    }
+                }
+            }
+            pending.addLast(Task(command, block, onError, runner, SystemClock.elapsedRealtime()))
+            if (!active) {
+                active = true
+                dispatchNext()
+            }
+        }
+        for (droppedCommand in dropped) {
+            commandListener?.onCommandDropped(name, droppedCommand)
+        }
+    }
+
+    /**
+     * 当前通道中等待执行的命令数
+     */
+    fun queueDepth(): Int {
+        synchronized(this) {
+            return pending.size
+        }
+    }
+
+    /**
+     * 清空还没执行的命令
+     */
+    fun clear() {
+        synchronized(this) {
+            pending.clear()
+        }
+    }
+
+    /**
+     * 每次只取一个命令执行，执行完再把通道重新交给线程池，
+     * 这样一条通道不会长时间占住共享线程
+     */
+    private fun drain() {
+        val task: Task
+        synchronized(this) {
+            val next = pending.removeFirstOrNull()
+            if (next == null) {
+                active = false
+                return
+            }
+            task = next
+        }
+        val startTime = SystemClock.elapsedRealtime()
+        try {
+            task.block()
+        } catch (e: Throwable) {
+            Log.e(TAG, "$name ${task.command} failed", e)
+            task.onError?.let { onError ->
+                mainHandler.post { onError(e) }
+            }
+        }
+        val endTime = SystemClock.elapsedRealtime()
+        val depth: Int
+        synchronized(this) {
+            depth = pending.size
+            if (depth == 0) {
+                active = false
+            } else {
+                dispatchNext()
+            }
+        }
+        commandListener?.onCommandFinished(name, task.command, startTime - task.enqueueTime, endTime - startTime, depth)
+    }
+
+    /**
+     * 按下一个命令指定的线程池调度，需要持有锁调用
+     */
+    private fun dispatchNext() {
+        (pending.first().runner ?: executor).execute(drainTask)
+    }
+
+    companion object {
+        private const val TAG = "PlayerCommandLane"
+
+        private val THREAD_COUNT = Runtime.getRuntime().availableProcessors().coerceIn(2, 4)
+
+        private val mainHandler = Handler(Looper.getMainLooper())
+
+        private val executor = ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT, 30L, TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            object : ThreadFactory {
+                private val count = AtomicInteger()
+                override fun newThread(r: Runnable): Thread {
+                    return Thread(r, "hatom-command-${count.incrementAndGet()}")
+                }
+            }
+        ).apply {
+            allowCoreThreadTimeOut(true)
+        }
+
+        /**
+         * 全局的命令执行情况监听，用于统计排队深度和命令耗时
+         */
+        @Volatile
+        @JvmStatic
+        var commandListener: CommandListener? = null
+    }
+
+}
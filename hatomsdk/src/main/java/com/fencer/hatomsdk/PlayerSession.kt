@@ -0,0 +1,194 @@
+package com.fencer.hatomsdk
+
+import com.hikvision.hatomplayer.PlayCallback
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import kotlin.coroutines.resume
+
+
+/**
+ * <p> 协程播放接口 </p>
+ * 和PlayWindowView原有的接口共用同一个播放器，开启播放、拖动、录像都是挂起函数，
+ * 等到播放器给出结果后才返回；调用方的协程被取消时，正在开启的播放会被关闭，
+ * 随页面或者ViewModel的作用域结束自动停止，不需要自己保存和释放任务
+ */
+class PlayerSession internal constructor(
+    private val window: PlayWindowView,
+    private val viewModel: PlayViewModel
+) {
+
+    /**
+     * 播放状态
+     */
+    val status: StateFlow<PlayStatus>
+        get() = viewModel.status
+
+    /**
+     * 播放器内部状态，区分了拖动、暂停和正在停止
+     */
+    val state: StateFlow<PlayerState>
+        get() = viewModel.playerState
+
+    /**
+     * 播放结果事件，主动停止时为FINISH + PlayResult.STOPPED
+     */
+    val events: SharedFlow<PlayResult>
+        get() = viewModel.events
+
+    /**
+     * 开启播放，直到出图、失败或者被停止后返回，自动重连中会继续等待
+     *
+     * @param startTime 回放的开始时间，预览时不用设置
+     * @param endTime   回放的结束时间，预览时不用设置
+     */
+    suspend fun start(url: String, startTime: Long = 0L, endTime: Long = 0L): PlayResult {
+        return awaitStart { window.startPlay(url, startTime, endTime) }
+    }
+
+    /**
+     * 按监控点开启播放，取流地址通过HatomSdk.setStreamUrlResolver设置的解析获取
+     */
+    suspend fun start(request: StreamRequest): PlayResult {
+        return awaitStart { window.startPlay(request) }
+    }
+
+    /**
+     * 停止播放，等到播放器真正关闭后返回
+     */
+    suspend fun stop() {
+        withContext(Dispatchers.Main.immediate + NonCancellable) {
+            window.stopPlay()
+            viewModel.awaitCommands()
+        }
+    }
+
+    /**
+     * 拖动回放，连续拖动时只执行最新的位置，每次调用都在最终位置出图后返回
+     */
+    suspend fun seek(seekTime: Long): PlayResult {
+        return withContext(Dispatchers.Main.immediate) {
+            if (viewModel.getPlayStatus() != PlayStatus.PLAYING) {
+                return@withContext PlayResult(
+                    status = PlayCallback.Status.FAILED,
+                    errorCode = "-1",
+                    extraCode = PlayResult.PLAYBACK_SEEK_FAILED
+                )
+            }
+            awaitEvent({ it.status != PlayCallback.Status.SUCCESS || it.extraCode == PlayResult.PLAYBACK_SEEK_SUCCESS }) {
+                window.seekPlayback(seekTime)
+            }
+        }
+    }
+
+    /**
+     * 开启录像，在命令通道中执行，时长和转码进度通过PlayWindowView.getRecordEvent()获取
+     *
+     * @return 录像文件路径，失败时为null，分段录像时是第一段的文件
+     */
+    suspend fun startRecord(): String? {
+        return withContext(Dispatchers.Main.immediate) {
+            viewModel.recordWindow = window.windowSerial
+            val started = suspendCancellableCoroutine<Boolean> { continuation ->
+                val submitted = viewModel.startRecord { success ->
+                    if (continuation.isActive) {
+                        continuation.resume(success)
+                    } else if (success) {
+                        //调用方已经取消，不保留录像
+                        window.isRecording = false
+                        viewModel.stopRecord()
+                    }
+                }
+                if (submitted) {
+                    window.isRecording = true
+                    continuation.invokeOnCancellation { window.isRecording = false }
+                } else {
+                    continuation.resume(false)
+                }
+            }
+            if (!started) {
+                window.isRecording = false
+                return@withContext null
+            }
+            viewModel.recordFilePath
+        }
+    }
+
+    /**
+     * 停止录像，等到录像文件关闭后返回，需要转码时转码在后台继续
+     *
+     * @return 录像文件路径，没有在录像时为null
+     */
+    suspend fun stopRecord(): String? {
+        return withContext(Dispatchers.Main.immediate + NonCancellable) {
+            if (!window.isRecording) {
+                return@withContext null
+            }
+            window.isRecording = false
+            val path = viewModel.recordFilePath
+            suspendCancellableCoroutine<Unit> { continuation ->
+                viewModel.stopRecord { continuation.resume(Unit) }
+            }
+            path
+        }
+    }
+
+    /**
+     * 抓图，等到原图和缩略图都写完后返回
+     *
+     * @return 抓图结果，不在播放中或者失败时为null
+     */
+    suspend fun capture(): CaptureResult? {
+        return withContext(Dispatchers.Main.immediate) {
+            suspendCancellableCoroutine { continuation ->
+                window.executeCapture { result ->
+                    if (continuation.isActive) {
+                        continuation.resume(result)
+                    }
+                }
+            }
+        }
+    }
+
+    private suspend fun awaitStart(start: () -> Unit): PlayResult {
+        return withContext(Dispatchers.Main.immediate) {
+            try {
+                awaitEvent({
+                    when (it.status) {
+                        PlayCallback.Status.SUCCESS -> it.extraCode != PlayResult.PLAYBACK_SEEK_SUCCESS
+                        PlayCallback.Status.FAILED -> it.extraCode != PlayResult.RECONNECTING &&
+                                it.extraCode != PlayResult.PLAYBACK_SEEK_FAILED
+                        else -> true
+                    }
+                }, start)
+            } catch (e: CancellationException) {
+                //取消时关闭已经开启的播放
+                withContext(NonCancellable) {
+                    window.stopPlay()
+                }
+                throw e
+            }
+        }
+    }
+
+    /**
+     * 先订阅事件再执行操作，不会漏掉操作中同步发送的结果
+     */
+    private suspend fun awaitEvent(predicate: (PlayResult) -> Boolean, action: () -> Unit): PlayResult {
+        return coroutineScope {
+            val result = async(start = CoroutineStart.UNDISPATCHED) {
+                viewModel.events.first(predicate)
+            }
+            action()
+            result.await()
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.fencer.hatomsdk
+
+import android.os.SystemClock
+import android.util.Log
+import java.util.EnumSet
+
+
+/**
+ * 播放器内部状态，比PlayStatus更细，对外仍然通过playStatus映射成PlayStatus
+ */
+enum class PlayerState {
+    /*还没有播放*/
+    IDLE,
+
+    /*正在取流，还没有出图*/
+    CONNECTING,
+
+    /*播放中*/
+    PLAYING,
+
+    /*拖动回放中*/
+    SEEKING,
+
+    /*暂停中*/
+    PAUSED,
+
+    /*播放失败后等待自动重连*/
+    RECONNECTING,
+
+    /*已经提交停止，播放器还没有真正关闭*/
+    STOPPING,
+
+    /*已经停止，可以再次播放*/
+    STOPPED,
+
+    /*播放失败*/
+    FAILED;
+
+    /**
+     * 对应的对外播放状态
+     */
+    val playStatus: PlayStatus
+        get() = when (this) {
+            IDLE -> PlayStatus.IDLE
+            CONNECTING -> PlayStatus.LOADING
+            PLAYING, SEEKING, PAUSED -> PlayStatus.PLAYING
+            RECONNECTING -> PlayStatus.RECONNECTING
+            STOPPING, STOPPED -> PlayStatus.STOP
+            FAILED -> PlayStatus.FAIL
+        }
+}
+
+
+/**
+ * <p> 播放器状态机 </p>
+ * 所有状态变化都经过这里，不合法的变化直接拒绝，例如停止后才收到的出图回调不会再把窗口改成播放中。
+ * 同时记录每个状态停留的时间，可以通过transitionListener统计
+ */
+class PlayerStateMachine(
+    private val name: String,
+    /*状态变化后在变化的线程回调，不能耗时*/
+    private val onChanged: (PlayerState) -> Unit
+) {
+
+    /**
+     * 状态变化回调，在状态变化的线程回调
+     */
+    interface TransitionListener {
+        /**
+         * @param durationMs 在from状态停留的时间
+         */
+        fun onTransition(name: String, from: PlayerState, to: PlayerState, durationMs: Long)
+
+        /**
+         * 不合法的状态变化被拒绝
+         */
+        fun onTransitionRejected(name: String, from: PlayerState, to: PlayerState)
+    }
+
+    /**
+     * 当前状态
+     */
+    @Volatile
+    var state = PlayerState.IDLE
+        private set
+
+    /*进入当前状态的时间*/
+    private var enterTime = SystemClock.elapsedRealtime()
+
+    /*每个状态累计停留的时间*/
+    private val durations = LongArray(PlayerState.values().size)
+
+    /**
+     * 切换到to状态，和当前状态相同时直接返回true
+     *
+     * @return 是否允许
+     */
+    fun moveTo(to: PlayerState): Boolean {
+        return transition(null, to)
+    }
+
+    /**
+     * 只有当前是from状态时才切换到to状态，用于异步完成的操作，期间状态已经变化时忽略
+     *
+     * @return 是否切换了
+     */
+    fun moveTo(from: PlayerState, to: PlayerState): Boolean {
+        return transition(from, to)
+    }
+
+    /**
+     * 当前是否是其中一个状态
+     */
+    fun isIn(vararg states: PlayerState): Boolean {
+        val current = state
+        for (s in states) {
+            if (s == current) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * 在某个状态累计停留的时间，包括正在停留的时间，单位毫秒
+     */
+    fun timeIn(target: PlayerState): Long {
+        synchronized(this) {
+            val current = if (state == target) SystemClock.elapsedRealtime() - enterTime else 0L
+            return durations[target.ordinal] + current
+        }
+    }
+
+    private fun transition(expected: PlayerState?, to: PlayerState): Boolean {
+        val from: PlayerState
+        val duration: Long
+        synchronized(this) {
+            from = state
+            if (expected != null && expected != from) {
+                return false
+            }
+            if (from == to) {
+                return true
+            }
+            if (!TRANSITIONS.getValue(from).contains(to)) {
+                Log.w(TAG, "$name reject $from -> $to")
+                transitionListener?.onTransitionRejected(name, from, to)
+                return false
+            }
+            val now = SystemClock.elapsedRealtime()
+            duration = now - enterTime
+            durations[from.ordinal] += duration
+            enterTime = now
+            state = to
+            //在锁内回调，多线程同时变化时通知的顺序和实际顺序一致
+            onChanged(to)
+        }
+        transitionListener?.onTransition(name, from, to, duration)
+        return true
+    }
+
+    companion object {
+        private const val TAG = "PlayerStateMachine"
+
+        /**
+         * 允许的状态变化
+         */
+        private val TRANSITIONS = mapOf(
+            PlayerState.IDLE to EnumSet.of(PlayerState.CONNECTING),
+            PlayerState.CONNECTING to EnumSet.of(
+                PlayerState.PLAYING, PlayerState.RECONNECTING, PlayerState.STOPPING, PlayerState.FAILED
+            ),
+            PlayerState.PLAYING to EnumSet.of(
+                PlayerState.CONNECTING, PlayerState.SEEKING, PlayerState.PAUSED,
+                PlayerState.RECONNECTING, PlayerState.STOPPING, PlayerState.FAILED
+            ),
+            PlayerState.SEEKING to EnumSet.of(
+                PlayerState.CONNECTING, PlayerState.PLAYING, PlayerState.PAUSED,
+                PlayerState.RECONNECTING, PlayerState.STOPPING, PlayerState.FAILED
+            ),
+            PlayerState.PAUSED to EnumSet.of(
+                PlayerState.CONNECTING, PlayerState.PLAYING, PlayerState.SEEKING,
+                PlayerState.RECONNECTING, PlayerState.STOPPING, PlayerState.FAILED
+            ),
+            PlayerState.RECONNECTING to EnumSet.of(
+                PlayerState.CONNECTING, PlayerState.STOPPING, PlayerState.FAILED
+            ),
+            PlayerState.STOPPING to EnumSet.of(
+                PlayerState.STOPPED, PlayerState.CONNECTING, PlayerState.RECONNECTING, PlayerState.FAILED
+            ),
+            //没有播放器时停止马上完成，之后再转为重连或失败
+            PlayerState.STOPPED to EnumSet.of(
+                PlayerState.CONNECTING, PlayerState.RECONNECTING, PlayerState.FAILED, PlayerState.IDLE
+            ),
+            PlayerState.FAILED to EnumSet.of(PlayerState.CONNECTING, PlayerState.STOPPING, PlayerState.IDLE)
+        )
+
+        /**
+         * 全局的状态变化监听，用于统计各状态的耗时，例如取流到出图、停止到真正关闭
+         */
+        @Volatile
+        @JvmStatic
+        var transitionListener: TransitionListener? = null
+    }
+}
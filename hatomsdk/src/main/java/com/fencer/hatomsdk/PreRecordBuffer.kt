@@ -0,0 +1,193 @@
+package com.fencer.hatomsdk
+
+import android.os.SystemClock
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * <p> 预录像缓存配置 </p>
+ * 开启后每个预览窗口在堆外内存中循环保存最近一段时间的码流，开始录像时先把这段码流写进录像文件，
+ * 录像里能看到点击录像之前发生的事情。所有窗口共用一个内存上限，窗口多时后面的窗口分到的缓存更少
+ */
+object PreRecordBuffer {
+
+    /**
+     * 预录像时长，单位毫秒，小于等于0时关闭
+     */
+    @JvmStatic
+    @Volatile
+    var durationMs = 0L
+
+    /**
+     * 单个窗口最多使用的缓存
+     */
+    @JvmStatic
+    @Volatile
+    var maxWindowBytes = 4 * 1024 * 1024
+
+    /**
+     * 所有窗口合计最多使用的缓存
+     */
+    @JvmStatic
+    @Volatile
+    var maxTotalBytes = 48L * 1024 * 1024
+
+    /*小于该大小时不再分配缓存*/
+    private const val MIN_WINDOW_BYTES = 256 * 1024
+
+    private val usedBytes = AtomicLong()
+
+    @JvmStatic
+    fun isEnabled(): Boolean {
+        return durationMs > 0L
+    }
+
+    /**
+     * 当前所有窗口占用的缓存
+     */
+    @JvmStatic
+    fun usedBytes(): Long {
+        return usedBytes.get()
+    }
+
+    /**
+     * 申请一个窗口的缓存，剩余不足maxWindowBytes时只分配剩余的部分
+     *
+     * @return 分配到的大小，0表示已经没有缓存可用
+     */
+    internal fun reserve(): Int {
+        while (true) {
+            val used = usedBytes.get()
+            val granted = minOf(maxWindowBytes.toLong(), maxTotalBytes - used)
+            if (granted < MIN_WINDOW_BYTES) {
+                return 0
+            }
+            if (usedBytes.compareAndSet(used, used + granted)) {
+                return granted.toInt()
+            }
+        }
+    }
+
+    internal fun release(bytes: Int) {
+        usedBytes.addAndGet(-bytes.toLong())
+    }
+}
+
+
+/**
+ * <p> 码流环形缓存 </p>
+ * 码流内容放在一整块堆外内存中循环覆盖，每个包的位置、长度、时间和是否是I帧放在索引数组中。
+ * 不是线程安全的，由ManagedHatomPlayer加锁调用
+ */
+internal class PreRecordRing(val capacity: Int) {
+
+    companion object {
+        /*最多记录的包数量，4M缓存按平均1K一个包估算*/
+        private const val MAX_PACKETS = 4096
+
+        private const val COPY_CHUNK = 64 * 1024
+    }
+
+    private val buffer = ByteBuffer.allocateDirect(capacity)
+
+    private val offsets = IntArray(MAX_PACKETS)
+
+    private val lengths = IntArray(MAX_PACKETS)
+
+    private val times = LongArray(MAX_PACKETS)
+
+    private val keyFrames = BooleanArray(MAX_PACKETS)
+
+    /*最早的包在索引数组中的位置*/
+    private var first = 0
+
+    private var count = 0
+
+    /*下一个包写入的位置*/
+    private var tail = 0
+
+    private var usedBytes = 0
+
+    fun isEmpty(): Boolean {
+        return count == 0
+    }
+
+    /**
+     * 写入一个包，先丢弃超过时长的包，空间不够时继续丢弃最早的包
+     */
+    fun add(data: ByteArray, length: Int, keyFrame: Boolean, durationMs: Long) {
+        if (length <= 0 || length > capacity) {
+            return
+        }
+        val now = SystemClock.elapsedRealtime()
+        while (count > 0 && now - times[first] > durationMs) {
+            dropFirst()
+        }
+        while (count > 0 && (count == MAX_PACKETS || usedBytes + length > capacity)) {
+            dropFirst()
+        }
+        if (count == 0) {
+            tail = 0
+        }
+        val index = (first + count) % MAX_PACKETS
+        offsets[index] = tail
+        lengths[index] = length
+        times[index] = now
+        keyFrames[index] = keyFrame
+        count++
+        usedBytes += length
+        //写到末尾时分成两段，剩下的部分从头开始写
+        val head = minOf(length, capacity - tail)
+        buffer.position(tail)
+        buffer.put(data, 0, head)
+        if (head < length) {
+            buffer.position(0)
+            buffer.put(data, head, length - head)
+        }
+        tail = (tail + length) % capacity
+    }
+
+    /**
+     * 从最早的I帧开始写出所有缓存的码流，I帧之前的包解不出来，直接跳过
+     *
+     * @return 写出的字节数
+     */
+    fun writeTo(out: OutputStream): Long {
+        var start = 0
+        while (start < count && !keyFrames[(first + start) % MAX_PACKETS]) {
+            start++
+        }
+        val chunk = ByteArray(COPY_CHUNK)
+        var written = 0L
+        for (i in start until count) {
+            val index = (first + i) % MAX_PACKETS
+            var offset = offsets[index]
+            var remain = lengths[index]
+            while (remain > 0) {
+                val size = minOf(remain, chunk.size, capacity - offset)
+                buffer.position(offset)
+                buffer.get(chunk, 0, size)
+                out.write(chunk, 0, size)
+                offset = (offset + size) % capacity
+                remain -= size
+            }
+            written += lengths[index]
+        }
+        return written
+    }
+
+    fun clear() {
+        first = 0
+        count = 0
+        tail = 0
+        usedBytes = 0
+    }
+
+    private fun dropFirst() {
+        usedBytes -= lengths[first]
+        first = (first + 1) % MAX_PACKETS
+        count--
+    }
+}
@@ -195,8 +195,13 @@ class PreviewControlViewSample : ConstraintLayout, View.OnClickListener {
                 ToastUtils.showLong("没有视频在播放")
                 return@let
             }
-            playWindowView.executeCapture()
-            ToastUtils.showShort("抓图成功")
+            playWindowView.executeCapture { result ->
+                if (result != null) {
+                    ToastUtils.showShort("抓图成功")
+                } else {
+                    ToastUtils.showShort("抓图失败")
+                }
+            }
         }
 
 
@@ -0,0 +1,228 @@
+package com.fencer.hatomsdk
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import java.util.ArrayDeque
+import kotlin.math.pow
+import kotlin.random.Random
+
+
+/**
+ * 播放失败或者异常断开后的自动重连策略，每个窗口单独设置
+ */
+data class ReconnectPolicy(
+    /*最多连续重连次数，小于等于0表示不重连*/
+    val maxAttempts: Int = 5,
+    /*第一次重连前的等待时间，单位毫秒*/
+    val initialDelayMs: Long = 1_000L,
+    /*最长等待时间，单位毫秒*/
+    val maxDelayMs: Long = 30_000L,
+    /*每次重连后等待时间的倍数*/
+    val multiplier: Double = 2.0,
+    /*随机抖动比例，0~1，实际等待时间在[delay*(1-jitter), delay]之间，避免所有窗口同时重连*/
+    val jitter: Double = 0.5
+) {
+
+    /**
+     * 第attempt次重连前的等待时间
+     *
+     * @param attempt 从1开始
+     */
+    fun delayFor(attempt: Int, random: Random = Random.Default): Long {
+        val exponential = initialDelayMs * multiplier.pow((attempt - 1).coerceAtLeast(0))
+        val delay = exponential.coerceAtMost(maxDelayMs.toDouble())
+        val ratio = jitter.coerceIn(0.0, 1.0)
+        return (delay * (1 - ratio * random.nextDouble())).toLong().coerceAtLeast(0L)
+    }
+
+    companion object {
+        /**
+         * 不重连，失败后直接回调失败
+         */
+        @JvmField
+        val DISABLED = ReconnectPolicy(maxAttempts = 0)
+    }
+}
+
+
+/**
+ * <p> 重连调度 </p>
+ * 所有窗口的重连都在这里排队：等待退避时间后，同时执行的重连不超过maxConcurrent个，
+ * 多出来的按先后顺序等待，整个现场断网恢复时不会同时发起几十个取流。
+ * 同一个监控点连续重连失败达到阈值后熔断一段时间，期间不再重连
+ */
+object ReconnectScheduler {
+
+    private const val TAG = "ReconnectScheduler"
+
+    /**
+     * 同时执行的重连数量
+     */
+    @JvmStatic
+    @Volatile
+    var maxConcurrent = 4
+
+    /**
+     * 重连开始后一直没有结果时，超过该时间释放名额，单位毫秒
+     */
+    @JvmStatic
+    @Volatile
+    var permitTimeoutMs = 20_000L
+
+    /**
+     * 同一个监控点连续失败多少次后熔断
+     */
+    @JvmStatic
+    @Volatile
+    var breakerThreshold = 5
+
+    /**
+     * 熔断时长，单位毫秒，过后允许一次试探重连
+     */
+    @JvmStatic
+    @Volatile
+    var breakerOpenMs = 60_000L
+
+    private class Pending(val owner: Any, val key: String, val task: Runnable) {
+        /*退避结束后放到等待队列*/
+        val readyTask = Runnable { onReady(this) }
+
+        /*执行后一直没有结果时释放名额*/
+        val timeoutTask = Runnable { onResult(owner, false) }
+    }
+
+    private class Breaker {
+        var failures = 0
+        var openUntil = 0L
+    }
+
+    private val lock = Any()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /*退避中的重连*/
+    private val delayed = HashMap<Any, Pending>()
+
+    /*退避结束，等待名额的重连*/
+    private val waiting = ArrayDeque<Pending>()
+
+    /*正在执行的重连*/
+    private val running = HashMap<Any, Pending>()
+
+    private val breakers = HashMap<String, Breaker>()
+
+    /**
+     * 安排一次重连，同一个窗口之前安排的重连会被取消
+     *
+     * @param owner   发起重连的窗口
+     * @param url     播放地址，同一个监控点共用熔断状态
+     * @param delayMs 退避时间
+     * @param task    在主线程执行的重连
+     * @return false-监控点熔断中，不能重连
+     */
+    @JvmStatic
+    fun schedule(owner: Any, url: String, delayMs: Long, task: Runnable): Boolean {
+        val key = breakerKey(url)
+        synchronized(lock) {
+            removeLocked(owner)
+            val breaker = breakers[key]
+            if (breaker != null && breaker.openUntil > SystemClock.elapsedRealtime()) {
+                Log.w(TAG, "schedule: circuit open for $key")
+                return false
+            }
+            val pending = Pending(owner, key, task)
+            delayed[owner] = pending
+            mainHandler.postDelayed(pending.readyTask, delayMs)
+            return true
+        }
+    }
+
+    /**
+     * 重连的结果，成功时清除监控点的失败次数，失败时累计，达到阈值后熔断
+     */
+    @JvmStatic
+    fun onResult(owner: Any, success: Boolean) {
+        synchronized(lock) {
+            val pending = running.remove(owner) ?: return
+            mainHandler.removeCallbacks(pending.timeoutTask)
+            if (success) {
+                breakers.remove(pending.key)
+            } else {
+                val breaker = breakers.getOrPut(pending.key) { Breaker() }
+                breaker.failures++
+                if (breaker.failures >= breakerThreshold) {
+                    //熔断，过后的试探重连再失败时马上再次熔断
+                    breaker.failures = breakerThreshold - 1
+                    breaker.openUntil = SystemClock.elapsedRealtime() + breakerOpenMs
+                    Log.w(TAG, "onResult: open circuit for ${pending.key}")
+                }
+            }
+        }
+        drain()
+    }
+
+    /**
+     * 取消窗口的重连，正在执行的重连释放名额
+     */
+    @JvmStatic
+    fun cancel(owner: Any) {
+        synchronized(lock) {
+            removeLocked(owner)
+        }
+        drain()
+    }
+
+    private fun removeLocked(owner: Any) {
+        delayed.remove(owner)?.let { mainHandler.removeCallbacks(it.readyTask) }
+        val iterator = waiting.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().owner === owner) {
+                iterator.remove()
+            }
+        }
+        running.remove(owner)?.let {
+            mainHandler.removeCallbacks(it.timeoutTask)
+            mainHandler.removeCallbacks(it.task)
+        }
+    }
+
+    private fun onReady(pending: Pending) {
+        synchronized(lock) {
+            if (delayed[pending.owner] !== pending) {
+                return
+            }
+            delayed.remove(pending.owner)
+            waiting.addLast(pending)
+        }
+        drain()
+    }
+
+    /**
+     * 有空闲名额时按顺序执行等待中的重连
+     */
+    private fun drain() {
+        while (true) {
+            val pending: Pending
+            synchronized(lock) {
+                if (running.size >= maxConcurrent.coerceAtLeast(1)) {
+                    return
+                }
+                pending = waiting.pollFirst() ?: return
+                running[pending.owner] = pending
+                mainHandler.postDelayed(pending.timeoutTask, permitTimeoutMs)
+            }
+            //重连会开启播放，放到主线程执行，不在锁内
+            mainHandler.post(pending.task)
+        }
+    }
+
+    /**
+     * 同一个监控点的取流地址带有临时令牌，去掉参数部分作为熔断的key
+     */
+    private fun breakerKey(url: String): String {
+        val index = url.indexOf('?')
+        return if (index >= 0) url.substring(0, index) else url
+    }
+}
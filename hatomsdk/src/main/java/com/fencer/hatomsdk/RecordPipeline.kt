@@ -0,0 +1,251 @@
+package com.fencer.hatomsdk
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import com.hikvision.formatconversion.HikFormatConversion
+import com.hikvision.formatconversion.TransProgress
+import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * 录像事件
+ */
+data class RecordEvent(
+    val type: Type,
+    /*录像文件，转码完成后是转码后的文件，失败时是保留下来的文件*/
+    val path: String,
+    /*已经录制的秒数*/
+    val seconds: Int = 0,
+    /*转码进度，0~100*/
+    val progress: Float = 0f
+) {
+    enum class Type {
+        /*开始录像*/
+        STARTED,
+
+        /*录像时长更新*/
+        TIME,
+
+        /*开启录像失败*/
+        START_FAILED,
+
+        /*停止录像，需要转码时之后还会有CONVERTING、CONVERTED*/
+        STOPPED,
+
+        /*转码中*/
+        CONVERTING,
+
+        /*转码完成*/
+        CONVERTED,
+
+        /*转码失败，保留原始文件*/
+        CONVERT_FAILED
+    }
+}
+
+
+/**
+ * 录像文件的转码方式
+ */
+enum class RecordConvertMode {
+    /*录像时同时转码，停止后直接可以用普通播放器播放，多个窗口同时录像时转码占用较多CPU*/
+    ON_THE_FLY,
+
+    /*录像时只保存原始码流，停止后在后台队列中逐个转码*/
+    AFTER_STOP,
+
+    /*不转码，只能使用视频SDK播放*/
+    NONE
+}
+
+
+/**
+ * <p> 录像流水线 </p>
+ * 开启和停止录像在各窗口的命令通道中执行，不占用主线程；停止后需要转码的文件放到有界的转码队列，
+ * 单线程逐个转码并回调进度。所有事件都在主线程回调，多个窗口同时录像时不会卡住多分屏界面
+ */
+object RecordPipeline {
+
+    private const val TAG = "RecordPipeline"
+
+    /*转码队列最多等待的文件数，超过后直接保留原始文件*/
+    private const val MAX_PENDING_CONVERSIONS = 8
+
+    /*转码进度的查询间隔*/
+    private const val PROGRESS_INTERVAL_MS = 200L
+
+    /*转码进度长时间不变时认为转码失败*/
+    private const val STALL_TIMEOUT_MS = 30_000L
+
+    /*原始码流文件的后缀*/
+    private const val RAW_SUFFIX = ".raw"
+
+    /**
+     * 录像事件回调，在主线程回调
+     */
+    fun interface Listener {
+        /**
+         * @param owner 录像的窗口
+         */
+        fun onRecordEvent(owner: Any, event: RecordEvent)
+    }
+
+    /**
+     * 录像文件的转码方式
+     */
+    @JvmStatic
+    @Volatile
+    var convertMode = RecordConvertMode.ON_THE_FLY
+
+    /**
+     * 录像分段规则，为null时每次录像只写一个文件，不记录到RecordSegmentStore；关闭的分段由RecordSegmentStore管理配额
+     */
+    @JvmStatic
+    @Volatile
+    var segmentPolicy: RecordSegmentPolicy? = null
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private val converter = ThreadPoolExecutor(
+        1, 1, 30L, TimeUnit.SECONDS,
+        ArrayBlockingQueue(MAX_PENDING_CONVERSIONS),
+        object : ThreadFactory {
+            private val count = AtomicInteger()
+            override fun newThread(r: Runnable): Thread {
+                return Thread(r, "hatom-convert-${count.incrementAndGet()}").apply {
+                    priority = Thread.MIN_PRIORITY
+                }
+            }
+        }
+    ).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners.addIfAbsent(listener)
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    /**
+     * 当前转码方式下播放器实际写入的文件
+     *
+     * @param path 最终的录像文件
+     */
+    internal fun recordingPath(path: String, mode: RecordConvertMode): String {
+        return if (mode == RecordConvertMode.AFTER_STOP) path + RAW_SUFFIX else path
+    }
+
+    /**
+     * 在主线程发送事件，owner自己的回调先于全局监听
+     */
+    internal fun dispatch(owner: Any, event: RecordEvent, callback: ((RecordEvent) -> Unit)? = null) {
+        mainHandler.post {
+            callback?.invoke(event)
+            for (listener in listeners) {
+                listener.onRecordEvent(owner, event)
+            }
+        }
+    }
+
+    /**
+     * 停止录像后把原始码流放到转码队列，队列已满时保留原始文件并回调失败
+     *
+     * @param onFinished 转码结束后在转码线程回调最终保留的文件
+     */
+    internal fun convert(
+        owner: Any,
+        source: String,
+        target: String,
+        callback: ((RecordEvent) -> Unit)?,
+        onFinished: ((String) -> Unit)? = null
+    ) {
+        try {
+            converter.execute {
+                onFinished?.invoke(runConversion(owner, source, target, callback))
+            }
+        } catch (e: RejectedExecutionException) {
+            Log.w(TAG, "convert: queue is full, keep $source")
+            dispatch(owner, RecordEvent(RecordEvent.Type.CONVERT_FAILED, source), callback)
+            onFinished?.invoke(source)
+        }
+    }
+
+    /**
+     * @return 最终保留的文件
+     */
+    private fun runConversion(owner: Any, source: String, target: String, callback: ((RecordEvent) -> Unit)?): String {
+        val handle = HikFormatConversion.createHandle()
+        if (handle <= -1L) {
+            Log.w(TAG, "convert: create handle failed")
+            dispatch(owner, RecordEvent(RecordEvent.Type.CONVERT_FAILED, source), callback)
+            return source
+        }
+        var success = false
+        try {
+            if (HikFormatConversion.startTransFileNoPrivate(handle, source, target)) {
+                success = awaitConversion(owner, handle, target, callback)
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "convert $source failed", e)
+        } finally {
+            HikFormatConversion.stop(handle)
+            HikFormatConversion.destroyHandle(handle)
+        }
+        return if (success) {
+            File(source).delete()
+            dispatch(owner, RecordEvent(RecordEvent.Type.CONVERTED, target, progress = 100f), callback)
+            target
+        } else {
+            File(target).delete()
+            dispatch(owner, RecordEvent(RecordEvent.Type.CONVERT_FAILED, source), callback)
+            source
+        }
+    }
+
+    /**
+     * 定时查询转码进度，进度变化时回调
+     *
+     * @return 是否转码完成
+     */
+    private fun awaitConversion(owner: Any, handle: Long, target: String, callback: ((RecordEvent) -> Unit)?): Boolean {
+        val progress = TransProgress()
+        var lastPercent = -1f
+        var lastChangeTime = SystemClock.elapsedRealtime()
+        while (true) {
+            Thread.sleep(PROGRESS_INTERVAL_MS)
+            if (!HikFormatConversion.getProgress(handle, progress)) {
+                return false
+            }
+            val percent = progress.percent
+            val now = SystemClock.elapsedRealtime()
+            if (percent != lastPercent) {
+                lastPercent = percent
+                lastChangeTime = now
+                dispatch(owner, RecordEvent(RecordEvent.Type.CONVERTING, target, progress = percent), callback)
+            }
+            if (percent >= 100f) {
+                return true
+            }
+            if (now - lastChangeTime > STALL_TIMEOUT_MS) {
+                Log.w(TAG, "convert: stalled at $percent")
+                return false
+            }
+        }
+    }
+}
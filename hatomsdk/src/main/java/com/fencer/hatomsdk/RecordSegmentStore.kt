@@ -0,0 +1,271 @@
+package com.fencer.hatomsdk
+
+import android.util.Log
+import com.blankj.utilcode.util.Utils
+import java.io.File
+import java.io.FileWriter
+import java.io.IOException
+
+
+/**
+ * 录像分段规则，录像达到任意一个上限时关闭当前文件，紧接着开启下一段
+ */
+data class RecordSegmentPolicy(
+    /*每段最长时长，单位秒，小于等于0时不按时长分段*/
+    val maxDurationSec: Int = 300,
+    /*每段最大字节数，小于等于0时不按大小分段*/
+    val maxSizeBytes: Long = 256L * 1024 * 1024
+)
+
+
+/**
+ * 一段已经关闭的录像文件
+ */
+data class RecordSegment(
+    /*录像的窗口序号*/
+    val window: Int,
+    /*监控点编号，直接按地址播放时为去掉参数的取流地址*/
+    val camera: String,
+    /*录像文件，转码失败时是保留下来的原始文件*/
+    val path: String,
+    /*开始录像的时间*/
+    val startTime: Long,
+    /*关闭文件的时间*/
+    val endTime: Long,
+    /*文件大小*/
+    val size: Long
+)
+
+
+/**
+ * <p> 录像分段索引 </p>
+ * 设置了RecordPipeline.segmentPolicy时，每段录像关闭（需要转码时是转码结束）后记录到录像目录下的索引文件，
+ * 按窗口和监控点查询；设置了quotaBytes后，所有分段的总大小超过配额时从最早关闭的分段开始删除，
+ * 长时间无人值守录像不会占满存储。
+ * 只管理索引中的文件：没有分段规则的手动录像不记录到索引，永远不会被删除；
+ * 正在写入的分段关闭后才计入总大小，每个窗口实际占用的存储最多会比配额多出一个分段的大小。
+ * 索引只追加写入，删除分段后整体重写一次
+ */
+object RecordSegmentStore {
+
+    private const val TAG = "RecordSegmentStore"
+
+    private const val INDEX_FILE = "segments.idx"
+
+    private const val SEPARATOR = '\t'
+
+    /**
+     * 所有分段的总大小上限，小于等于0时不限制，默认不限制
+     */
+    @JvmStatic
+    @Volatile
+    var quotaBytes = 0L
+
+    private val lock = Any()
+
+    /*按关闭时间排序，最早的在前面*/
+    private val segments = ArrayList<RecordSegment>()
+
+    private var totalBytes = 0L
+
+    private var loaded = false
+
+    /**
+     * 查询分段，按关闭时间排序
+     *
+     * @param window 窗口序号，小于0时不过滤
+     * @param camera 监控点，为null时不过滤
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun segments(window: Int = -1, camera: String? = null): List<RecordSegment> {
+        synchronized(lock) {
+            ensureLoaded()
+            return segments.filter {
+                (window < 0 || it.window == window) && (camera == null || it.camera == camera)
+            }
+        }
+    }
+
+    /**
+     * 所有分段的总大小
+     */
+    @JvmStatic
+    fun totalBytes(): Long {
+        synchronized(lock) {
+            ensureLoaded()
+            return totalBytes
+        }
+    }
+
+    /**
+     * 删除一个分段和它的文件
+     */
+    @JvmStatic
+    fun delete(segment: RecordSegment) {
+        synchronized(lock) {
+            ensureLoaded()
+            if (segments.remove(segment)) {
+                totalBytes -= segment.size
+                File(segment.path).delete()
+                rewrite()
+            }
+        }
+    }
+
+    /**
+     * 记录一段已经关闭的录像，超过配额时删除最早的分段，在命令通道或者转码线程调用
+     */
+    internal fun add(window: Int, camera: String, path: String, startTime: Long, endTime: Long) {
+        val size = File(path).length()
+        if (size <= 0L) {
+            return
+        }
+        val segment = RecordSegment(window, clean(camera), path, startTime, endTime, size)
+        synchronized(lock) {
+            ensureLoaded()
+            //转码完成的顺序和关闭的顺序可能不同，按关闭时间插入，淘汰时总是先删最早的
+            segments.add(insertionIndex(endTime), segment)
+            totalBytes += size
+            if (!evict()) {
+                append(segment)
+            }
+        }
+    }
+
+    /**
+     * 二分查找按关闭时间插入的位置，关闭时间相同时排在后面
+     */
+    private fun insertionIndex(endTime: Long): Int {
+        var low = 0
+        var high = segments.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (segments[mid].endTime <= endTime) {
+                low = mid + 1
+            } else {
+                high = mid
+            }
+        }
+        return low
+    }
+
+    /**
+     * 超过配额时删除最早关闭的分段，保留最新的一段
+     *
+     * @return 是否删除了分段并重写了索引
+     */
+    private fun evict(): Boolean {
+        val quota = quotaBytes
+        if (quota <= 0L || totalBytes <= quota) {
+            return false
+        }
+        var removed = 0
+        while (totalBytes > quota && segments.size - removed > 1) {
+            val oldest = segments[removed++]
+            totalBytes -= oldest.size
+            if (!File(oldest.path).delete()) {
+                Log.w(TAG, "evict: delete ${oldest.path} failed")
+            }
+        }
+        segments.subList(0, removed).clear()
+        Log.i(TAG, "evict $removed segments, total $totalBytes")
+        rewrite()
+        return true
+    }
+
+    /**
+     * 第一次使用时读取索引，去掉文件已经不存在的分段
+     */
+    private fun ensureLoaded() {
+        if (loaded) {
+            return
+        }
+        loaded = true
+        val file = indexFile()
+        if (!file.exists()) {
+            return
+        }
+        var missing = false
+        try {
+            file.forEachLine { line ->
+                val segment = parse(line)
+                if (segment != null && File(segment.path).exists()) {
+                    segments.add(segment)
+                    totalBytes += segment.size
+                } else {
+                    missing = true
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "load index failed", e)
+        }
+        segments.sortBy { it.endTime }
+        //配额可能在两次启动之间被调小
+        if (!evict() && missing) {
+            rewrite()
+        }
+    }
+
+    private fun append(segment: RecordSegment) {
+        try {
+            FileWriter(indexFile(), true).use { it.write(format(segment)) }
+        } catch (e: IOException) {
+            Log.w(TAG, "append index failed", e)
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，写到一半被杀掉时不会丢失整个索引
+     */
+    private fun rewrite() {
+        val file = indexFile()
+        val temp = File(file.path + ".tmp")
+        try {
+            FileWriter(temp).use { writer ->
+                for (segment in segments) {
+                    writer.write(format(segment))
+                }
+            }
+            if (!temp.renameTo(file)) {
+                Log.w(TAG, "rewrite: rename index failed")
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "rewrite index failed", e)
+        }
+    }
+
+    private fun indexFile(): File {
+        return File(MyUtils.getMoviesDir(Utils.getApp()), INDEX_FILE)
+    }
+
+    private fun format(segment: RecordSegment): String {
+        return buildString {
+            append(segment.window).append(SEPARATOR)
+            append(segment.camera).append(SEPARATOR)
+            append(segment.path).append(SEPARATOR)
+            append(segment.startTime).append(SEPARATOR)
+            append(segment.endTime).append(SEPARATOR)
+            append(segment.size).append('\n')
+        }
+    }
+
+    private fun parse(line: String): RecordSegment? {
+        val fields = line.split(SEPARATOR)
+        if (fields.size != 6) {
+            return null
+        }
+        return RecordSegment(
+            fields[0].toIntOrNull() ?: return null,
+            fields[1],
+            fields[2],
+            fields[3].toLongOrNull() ?: return null,
+            fields[4].toLongOrNull() ?: return null,
+            fields[5].toLongOrNull() ?: return null
+        )
+    }
+
+    private fun clean(value: String): String {
+        return value.replace(SEPARATOR, ' ').replace('\n', ' ').replace('\r', ' ')
+    }
+}
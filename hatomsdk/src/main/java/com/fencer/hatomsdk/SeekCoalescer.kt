@@ -0,0 +1,94 @@
+package com.fencer.hatomsdk
+
+import android.os.SystemClock
+
+
+/**
+ * <p> 回放拖动合并 </p>
+ * 拖动时间条时同一时刻最多只有一个拖动在执行，执行期间的拖动只保留最新的目标时间，
+ * 当前拖动完成后再执行最新的目标，拖动结束后能尽快落在最终的位置上
+ */
+internal class SeekCoalescer(private val dispatcher: (seekTime: Long) -> Unit) {
+
+    companion object {
+        private const val NO_SEEK = -1L
+
+        /*拖动超过该时间还没有回调，认为已经结束，避免一直卡住后面的拖动*/
+        private const val SEEK_TIMEOUT_MS = 5_000L
+    }
+
+    /*正在执行的拖动目标时间*/
+    private var inFlightSeek = NO_SEEK
+
+    /*等待执行的拖动目标时间，只保留最新的一个*/
+    private var pendingSeek = NO_SEEK
+
+    /*当前拖动开始执行的时间*/
+    private var issueTime = 0L
+
+    /**
+     * 请求拖动，正在拖动时只记录最新的目标时间
+     */
+    fun request(seekTime: Long) {
+        synchronized(this) {
+            val now = SystemClock.elapsedRealtime()
+            if (inFlightSeek != NO_SEEK && now - issueTime < SEEK_TIMEOUT_MS) {
+                pendingSeek = seekTime
+                return
+            }
+            inFlightSeek = seekTime
+            pendingSeek = NO_SEEK
+            issueTime = now
+        }
+        dispatcher(seekTime)
+    }
+
+    /**
+     * 当前拖动完成，有等待中的目标就接着执行
+     *
+     * @return 从开始拖动到出图的耗时，没有拖动在执行时返回-1
+     */
+    fun onSeekFinished(): Long {
+        val latency: Long
+        val next: Long
+        synchronized(this) {
+            if (inFlightSeek == NO_SEEK) {
+                return NO_SEEK
+            }
+            val now = SystemClock.elapsedRealtime()
+            latency = now - issueTime
+            next = pendingSeek
+            pendingSeek = NO_SEEK
+            if (next == NO_SEEK) {
+                inFlightSeek = NO_SEEK
+            } else {
+                inFlightSeek = next
+                issueTime = now
+            }
+        }
+        if (next != NO_SEEK) {
+            dispatcher(next)
+        }
+        return latency
+    }
+
+    /**
+     * 是否还有拖动在执行或者等待执行
+     */
+    fun isSeeking(): Boolean {
+        synchronized(this) {
+            return inFlightSeek != NO_SEEK
+        }
+    }
+
+    /**
+     * 停止播放或者播放失败时清空拖动状态
+     */
+    fun reset() {
+        synchronized(this) {
+            inFlightSeek = NO_SEEK
+            pendingSeek = NO_SEEK
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.fencer.hatomsdk
+
+import com.hikvision.hatomplayer.core.Quality
+
+
+/**
+ * <p> 码流分级策略 </p>
+ * 根据窗口实际显示的大小和选中状态选择码流：
+ * 单画面或足够大的窗口用主码流，多分屏下的小窗口用子码流，
+ * 16分屏时可以大幅降低解码和带宽的消耗
+ */
+open class StreamQualityPolicy(
+    /*窗口宽度不小于该值时使用主码流，单位像素*/
+    var mainStreamMinWidth: Int = 720,
+    /*窗口宽度不小于该值时使用标清子码流，再小就用流畅子码流，单位像素*/
+    var subStreamMinWidth: Int = 320
+) {
+
+    /**
+     * 选择码流
+     *
+     * @param width      窗口宽度
+     * @param height     窗口高度
+     * @param isSelected 窗口是否被选中，选中的窗口提升一档，但不会超过标清子码流
+     * @param isFullScreen 是否是单画面，单画面直接使用主码流
+     */
+    open fun select(width: Int, height: Int, isSelected: Boolean, isFullScreen: Boolean): Quality {
+        if (isFullScreen || width >= mainStreamMinWidth) {
+            return Quality.MAIN_STREAM_HIGH
+        }
+        if (width >= subStreamMinWidth || isSelected) {
+            return Quality.SUB_STREAM_STANDARD
+        }
+        return Quality.SUB_STREAM_LOW
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.fencer.hatomsdk
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * <p> 取流地址缓存 </p>
+ * 按StreamRequest缓存StreamUrlResolver解析出来的取流地址，地址快过期前不再使用，重新解析。
+ * 同一个监控点同时只解析一次，等待中的窗口共用结果；
+ * 使用时已经超过有效期的refreshAheadRatio，在后台提前刷新，下次开启播放时直接拿到新的地址；
+ * 翻页时prefetch把一整页窗口合并成一次resolveAll
+ */
+class StreamUrlCache @JvmOverloads constructor(
+    private val resolver: StreamUrlResolver,
+    /*最多缓存的监控点数量，超过后淘汰最久没有使用的*/
+    private val maxEntries: Int = 64
+) {
+
+    /**
+     * 取流地址回调，都在主线程
+     */
+    fun interface Callback {
+        /**
+         * @param url 取流地址，解析失败时为null
+         */
+        fun onResolved(request: StreamRequest, url: String?)
+    }
+
+    /**
+     * 使用了有效期的多少比例后提前刷新，0~1
+     */
+    @Volatile
+    var refreshAheadRatio = 0.8f
+        set(value) {
+            field = value.coerceIn(0f, 1f)
+        }
+
+    /**
+     * 距离过期不到该时间的地址不再使用，留给取流握手，单位毫秒
+     */
+    @Volatile
+    var expiryMarginMs = 3_000L
+
+    private class Entry(val url: String, val refreshAt: Long, val expiresAt: Long)
+
+    private class InFlight {
+        val callbacks = ArrayList<Callback>(1)
+
+        /*解析过程中被invalidate，结果只回调不缓存*/
+        var stale = false
+    }
+
+    private val lock = Any()
+
+    /*按最近使用排序*/
+    private val entries = object : LinkedHashMap<StreamRequest, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<StreamRequest, Entry>): Boolean {
+            return size > maxEntries
+        }
+    }
+
+    private val inFlight = HashMap<StreamRequest, InFlight>()
+
+    /**
+     * 获取取流地址，缓存中的地址还能使用时在当前线程直接回调，否则等解析完成后在主线程回调
+     */
+    fun get(request: StreamRequest, callback: Callback) {
+        var cachedUrl: String? = null
+        var refresh = false
+        var resolve = false
+        synchronized(lock) {
+            val now = SystemClock.elapsedRealtime()
+            val entry = entries[request]
+            if (entry != null && now < entry.expiresAt - expiryMarginMs) {
+                cachedUrl = entry.url
+                refresh = now >= entry.refreshAt && !inFlight.containsKey(request)
+                if (refresh) {
+                    inFlight[request] = InFlight()
+                }
+            } else {
+                val pending = inFlight[request]
+                if (pending != null) {
+                    pending.callbacks.add(callback)
+                } else {
+                    inFlight[request] = InFlight().also { it.callbacks.add(callback) }
+                    resolve = true
+                }
+            }
+        }
+        if (refresh || resolve) {
+            submit(listOf(request))
+        }
+        cachedUrl?.let { callback.onResolved(request, it) }
+    }
+
+    /**
+     * 缓存中还能使用的取流地址，没有时返回null，不会触发解析
+     */
+    fun getCached(request: StreamRequest): String? {
+        synchronized(lock) {
+            val entry = entries[request] ?: return null
+            return if (SystemClock.elapsedRealtime() < entry.expiresAt - expiryMarginMs) entry.url else null
+        }
+    }
+
+    /**
+     * 批量预取，没有缓存或者需要提前刷新的地址合并成一次resolveAll，正在解析的跳过
+     */
+    fun prefetch(requests: Collection<StreamRequest>) {
+        val batch = ArrayList<StreamRequest>(requests.size)
+        synchronized(lock) {
+            val now = SystemClock.elapsedRealtime()
+            for (request in requests) {
+                if (inFlight.containsKey(request)) {
+                    continue
+                }
+                val entry = entries[request]
+                if (entry != null && now < entry.refreshAt && now < entry.expiresAt - expiryMarginMs) {
+                    continue
+                }
+                inFlight[request] = InFlight()
+                batch.add(request)
+            }
+        }
+        if (batch.isNotEmpty()) {
+            submit(batch)
+        }
+    }
+
+    /**
+     * 移除缓存的地址，例如用这个地址取流失败后，下次重新解析
+     */
+    fun invalidate(request: StreamRequest) {
+        synchronized(lock) {
+            entries.remove(request)
+            inFlight[request]?.stale = true
+        }
+    }
+
+    /**
+     * 清空缓存，正在解析的结果不再缓存
+     */
+    fun clear() {
+        synchronized(lock) {
+            entries.clear()
+            for (pending in inFlight.values) {
+                pending.stale = true
+            }
+        }
+    }
+
+    private fun submit(batch: List<StreamRequest>) {
+        executor.execute {
+            val results: List<ResolvedStreamUrl?> = try {
+                if (batch.size == 1) {
+                    listOf(resolver.resolve(batch[0]))
+                } else {
+                    resolver.resolveAll(batch)
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "resolve ${batch.size} stream url failed", e)
+                emptyList()
+            }
+            for (i in batch.indices) {
+                complete(batch[i], results.getOrNull(i))
+            }
+        }
+    }
+
+    private fun complete(request: StreamRequest, result: ResolvedStreamUrl?) {
+        val pending: InFlight
+        synchronized(lock) {
+            pending = inFlight.remove(request) ?: return
+            if (result != null && result.ttlMs > 0 && !pending.stale) {
+                val now = SystemClock.elapsedRealtime()
+                entries[request] = Entry(
+                    result.url,
+                    now + (result.ttlMs * refreshAheadRatio).toLong(),
+                    now + result.ttlMs
+                )
+            }
+        }
+        if (pending.callbacks.isEmpty()) {
+            return
+        }
+        val url = result?.url
+        mainHandler.post {
+            for (callback in pending.callbacks) {
+                callback.onResolved(request, url)
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "StreamUrlCache"
+
+        private val mainHandler = Handler(Looper.getMainLooper())
+
+        private val executor = ThreadPoolExecutor(
+            2, 2, 30L, TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            object : ThreadFactory {
+                private val count = AtomicInteger()
+                override fun newThread(r: Runnable): Thread {
+                    return Thread(r, "hatom-resolver-${count.incrementAndGet()}")
+                }
+            }
+        ).apply {
+            allowCoreThreadTimeOut(true)
+        }
+    }
+}
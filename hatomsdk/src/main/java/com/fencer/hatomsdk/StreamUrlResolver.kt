@@ -0,0 +1,58 @@
+package com.fencer.hatomsdk
+
+
+/**
+ * 按监控点取流的请求，作为取流地址缓存的key
+ */
+data class StreamRequest(
+    /*监控点编号*/
+    val cameraId: String,
+    /*是否是回放地址*/
+    val playback: Boolean = false,
+    /*回放的开始时间，预览时为0*/
+    val startTime: Long = 0L,
+    /*回放的结束时间，预览时为0*/
+    val endTime: Long = 0L
+)
+
+
+/**
+ * 解析出来的取流地址
+ */
+data class ResolvedStreamUrl(
+    /*取流地址，例如rtsp://.../openUrl/...*/
+    val url: String,
+    /*有效时长，单位毫秒，小于等于0表示只能使用一次，不缓存*/
+    val ttlMs: Long
+)
+
+
+/**
+ * <p> 取流地址解析 </p>
+ * 由调用方实现，一般是请求平台的取流接口，把监控点换成带临时令牌的取流地址。
+ * 都在后台线程调用，可以直接发起同步的网络请求
+ */
+fun interface StreamUrlResolver {
+
+    /**
+     * 解析一个监控点的取流地址，失败时直接抛出异常
+     */
+    @Throws(Exception::class)
+    fun resolve(request: StreamRequest): ResolvedStreamUrl
+
+    /**
+     * 批量解析一页窗口的取流地址，平台支持批量接口时重写这个方法，一次请求拿到所有地址
+     *
+     * @return 和requests一一对应，单个失败的位置为null
+     */
+    @Throws(Exception::class)
+    fun resolveAll(requests: List<StreamRequest>): List<ResolvedStreamUrl?> {
+        return requests.map {
+            try {
+                resolve(it)
+            } catch (e: Exception) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.fencer.hatomsdk;
+
+
+/**
+ * <p>码率和流量的格式化</p>
+ * 输出和TrafficUtils原来用DecimalFormat的结果一致（HALF_EVEN舍入），直接写入调用方提供的字符数组，不创建对象。
+ * 码率和流量都是字节数除以2的幂，乘以100后仍然是精确值，用Math.rint舍入和DecimalFormat结果相同
+ *
+ * @name TrafficFormatter
+ */
+public final class TrafficFormatter {
+
+    /**
+     * 格式化后的最大长度
+     */
+    public static final int MAX_LENGTH = 32;
+
+    private static final double DATA_UNIT = 1024.0D;
+
+    private static final char[] UNIT_KB_S = {'K', 'B', '/', 's'};
+    private static final char[] UNIT_MB_S = {'M', 'B', '/', 's'};
+    private static final char[] UNIT_MB = {'M', 'B'};
+    private static final char[] UNIT_GB = {'G', 'B'};
+
+    private static final ThreadLocal<char[]> sBuffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[MAX_LENGTH];
+        }
+    };
+
+    private TrafficFormatter() {
+        throw new UnsupportedOperationException("u can't instantiate me...");
+    }
+
+    /**
+     * 格式化每秒流量，例如"12.5KB/s"、"1.20MB/s"
+     *
+     * @param diffValue 每秒的字节数
+     * @param dst       目标数组，从offset开始至少要有{@link #MAX_LENGTH}个字符
+     * @param offset    写入的位置
+     * @return 写入的字符数
+     */
+    public static int formatCurrentTraffic(long diffValue, char[] dst, int offset) {
+        double result = (double) diffValue / DATA_UNIT;
+        char[] unit = UNIT_KB_S;
+        int index;
+        if (result < 0.0D) {
+            index = writeFixed(0.0D, 2, dst, offset);
+        } else if (result < 10.0D) {
+            index = writeFixed(result, 2, dst, offset);
+        } else if (result < 100.0D) {
+            index = writeFixed(result, 1, dst, offset);
+        } else if (result < 1000.0D) {
+            index = writeFixed(result, 0, dst, offset);
+        } else {
+            unit = UNIT_MB_S;
+            index = writeFixed(result / DATA_UNIT, 2, dst, offset);
+        }
+        index = writeUnit(unit, dst, index);
+        return index - offset;
+    }
+
+    /**
+     * 格式化总流量，例如"12.34MB"、"1.20GB"
+     *
+     * @param currentDataLength 总字节数
+     * @param dst               目标数组，从offset开始至少要有{@link #MAX_LENGTH}个字符
+     * @param offset            写入的位置
+     * @return 写入的字符数
+     */
+    public static int formatTotalTraffic(long currentDataLength, char[] dst, int offset) {
+        double result = (double) currentDataLength / (DATA_UNIT * DATA_UNIT);
+        char[] unit = UNIT_MB;
+        if (result >= 1000.0D) {
+            unit = UNIT_GB;
+            result /= DATA_UNIT;
+        }
+        int index = writeFixed(result, 2, dst, offset);
+        index = writeUnit(unit, dst, index);
+        return index - offset;
+    }
+
+    /**
+     * 格式化每秒流量后追加到builder，不创建对象
+     */
+    public static void appendCurrentTraffic(long diffValue, StringBuilder builder) {
+        char[] buffer = sBuffer.get();
+        builder.append(buffer, 0, formatCurrentTraffic(diffValue, buffer, 0));
+    }
+
+    /**
+     * 格式化总流量后追加到builder，不创建对象
+     */
+    public static void appendTotalTraffic(long currentDataLength, StringBuilder builder) {
+        char[] buffer = sBuffer.get();
+        builder.append(buffer, 0, formatTotalTraffic(currentDataLength, buffer, 0));
+    }
+
+    /**
+     * 格式化每秒流量
+     */
+    public static String formatCurrentTraffic(long diffValue) {
+        char[] buffer = sBuffer.get();
+        return new String(buffer, 0, formatCurrentTraffic(diffValue, buffer, 0));
+    }
+
+    /**
+     * 格式化总流量
+     */
+    public static String formatTotalTraffic(long currentDataLength) {
+        char[] buffer = sBuffer.get();
+        return new String(buffer, 0, formatTotalTraffic(currentDataLength, buffer, 0));
+    }
+
+    /**
+     * 按固定小数位数写入，整数部分至少一位，和DecimalFormat一样负数舍入到0时保留负号
+     *
+     * @return 写入后的位置
+     */
+    private static int writeFixed(double value, int decimals, char[] dst, int offset) {
+        int index = offset;
+        if (value < 0.0D) {
+            dst[index++] = '-';
+            value = -value;
+        }
+        long scale = decimals == 0 ? 1L : decimals == 1 ? 10L : 100L;
+        long scaled = (long) Math.rint(value * scale);
+        index = writeLong(scaled / scale, dst, index);
+        if (decimals > 0) {
+            dst[index++] = '.';
+            long fraction = scaled % scale;
+            for (long divisor = scale / 10; divisor > 0; divisor /= 10) {
+                dst[index++] = (char) ('0' + fraction / divisor % 10);
+            }
+        }
+        return index;
+    }
+
+    private static int writeLong(long value, char[] dst, int offset) {
+        int digits = 1;
+        for (long remain = value / 10; remain > 0; remain /= 10) {
+            digits++;
+        }
+        int index = offset + digits;
+        for (int i = index - 1; i >= offset; i--) {
+            dst[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return index;
+    }
+
+    private static int writeUnit(char[] unit, char[] dst, int offset) {
+        System.arraycopy(unit, 0, dst, offset, unit.length);
+        return offset + unit.length;
+    }
+}
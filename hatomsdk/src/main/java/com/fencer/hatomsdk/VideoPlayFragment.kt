@@ -85,9 +85,8 @@ class VideoPlayFragment :Fragment() {
         sampleControllerView.previewUrl = playConfig.url?.trim()?:""
         sampleControllerView.setPlayWindowView(playWindow)
         if (playConfig.autoPlay){
-            sampleControllerView.postDelayed({
-                sampleControllerView.startPreview()
-            },800)
+            //不用等画布创建，马上开始取流，画布准备好后播放窗口会自动开始解码出图
+            sampleControllerView.startPreview()
         }
     }
 
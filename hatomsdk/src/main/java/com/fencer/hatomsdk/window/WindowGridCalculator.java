@@ -0,0 +1,164 @@
+package com.fencer.hatomsdk.window;
+
+
+/**
+ * <p>WindowGroup的网格计算</p>
+ * 根据分屏模式和容器大小计算窗口所在的页、行、列以及窗口的位置，
+ * 分屏模式和容器大小变化时才重新计算每页窗口数和窗口宽高，布局和拖动时不创建任何对象
+ *
+ * @name WindowGridCalculator
+ */
+public final class WindowGridCalculator {
+    /**
+     * 分屏模式，每行每列的窗口数
+     */
+    private int mWindowMode = 1;
+    /**
+     * 每页的窗口数
+     */
+    private int mPageSize = 1;
+    /**
+     * 容器的宽高
+     */
+    private int mGroupWidth;
+    private int mGroupHeight;
+    /**
+     * 窗口的宽高
+     */
+    private int mItemWidth;
+    private int mItemHeight;
+
+    /**
+     * 设置分屏模式
+     *
+     * @param windowMode 分屏模式，每行每列的窗口数
+     */
+    public void setWindowMode(int windowMode) {
+        if (windowMode <= 0 || windowMode == mWindowMode) {
+            return;
+        }
+        mWindowMode = windowMode;
+        mPageSize = windowMode * windowMode;
+        calcItemSize();
+    }
+
+    /**
+     * 设置容器大小
+     *
+     * @param groupWidth  容器宽度
+     * @param groupHeight 容器高度
+     */
+    public void setGroupSize(int groupWidth, int groupHeight) {
+        if (groupWidth == mGroupWidth && groupHeight == mGroupHeight) {
+            return;
+        }
+        mGroupWidth = groupWidth;
+        mGroupHeight = groupHeight;
+        calcItemSize();
+    }
+
+    private void calcItemSize() {
+        mItemWidth = mGroupWidth / mWindowMode;
+        mItemHeight = mGroupHeight / mWindowMode;
+    }
+
+    public int getWindowMode() {
+        return mWindowMode;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    public int getItemWidth() {
+        return mItemWidth;
+    }
+
+    public int getItemHeight() {
+        return mItemHeight;
+    }
+
+    /**
+     * 窗口所在的行
+     */
+    public int rowOf(int serial) {
+        return serial % mPageSize / mWindowMode;
+    }
+
+    /**
+     * 窗口所在的列
+     */
+    public int columnOf(int serial) {
+        return serial % mWindowMode;
+    }
+
+    /**
+     * 窗口所在的页
+     */
+    public int screenOf(int serial) {
+        return serial / mPageSize;
+    }
+
+    /**
+     * 某一页第一个窗口的序列号
+     */
+    public int pageStart(int page) {
+        return page * mPageSize;
+    }
+
+    /**
+     * 某一页最后一个窗口的序列号
+     */
+    public int pageEnd(int page) {
+        return page * mPageSize + mPageSize - 1;
+    }
+
+    /**
+     * 放下指定数量的窗口需要的页数
+     */
+    public int screenCount(int windowCount) {
+        return (windowCount + mPageSize - 1) / mPageSize;
+    }
+
+    /**
+     * 窗口左边在容器中的位置，每页在水平方向依次排开
+     */
+    public int itemLeft(int left, int screenIndex, int columnIndex) {
+        return left + mGroupWidth * screenIndex + mItemWidth * columnIndex;
+    }
+
+    /**
+     * 窗口上边在容器中的位置
+     *
+     * @param offset 布局高度和实际高度的差值，一半作为上下的留白
+     */
+    public int itemTop(int offset, int rowIndex) {
+        return offset / 2 + mItemHeight * rowIndex;
+    }
+
+    /**
+     * 窗口在当前页中的左边位置
+     */
+    public int itemLeftInPage(int left, int columnIndex) {
+        return left + mItemWidth * columnIndex;
+    }
+
+    /**
+     * 窗口中心点在当前页中的x坐标
+     *
+     * @param viewLeft    窗口当前的左边位置
+     * @param viewWidth   窗口宽度
+     * @param screenIndex 窗口所在的页
+     */
+    public int centerXInPage(int viewLeft, int viewWidth, int screenIndex) {
+        int left = viewLeft - screenIndex * mGroupWidth;
+        return (left + left + viewWidth) / 2;
+    }
+
+    /**
+     * 窗口中心点的y坐标
+     */
+    public int centerY(int viewTop, int viewHeight) {
+        return (viewTop + viewTop + viewHeight) / 2;
+    }
+}
@@ -20,13 +20,15 @@ import android.widget.Scroller;
 import androidx.annotation.IntDef;
 
 import com.blankj.utilcode.util.SizeUtils;
+import com.fencer.hatomsdk.CapturePipeline;
 import com.fencer.hatomsdk.PlayWindowView;
 import com.fencer.hatomsdk.R;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -157,6 +159,24 @@ public class WindowGroup extends ViewGroup {
      */
     private int mMinTouchSlop;
     private PagerObserver mObserver;
+    /**
+     * 被移除窗口的回收池
+     */
+    private final WindowItemRecycledPool mRecycledPool = new WindowItemRecycledPool();
+    /**
+     * 拖动窗口时窗口中心点的坐标，避免每次移动都创建数组
+     */
+    private int mMoveCenterX;
+    private int mMoveCenterY;
+    /**
+     * 获取窗口在屏幕中位置时复用的数组
+     */
+    private final int[] mTempLocation = new int[2];
+    /**
+     * 上下左右移动和左右滑动的最小距离，单位像素
+     */
+    private float mMoveSlopPx;
+    private int mScrollSlopPx;
 
 
     /**
@@ -204,6 +224,10 @@ public class WindowGroup extends ViewGroup {
         mScroller = new Scroller(context);
         mWindowGroupAdapter.init(mWindowMode, mMaxCount);
         mMinTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        mMoveSlopPx = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, TOUCH_SLOP,
+                getResources().getDisplayMetrics());
+        mScrollSlopPx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                TOUCH_SLOP >> 1, getResources().getDisplayMetrics());
     }
 
 
@@ -251,27 +275,42 @@ public class WindowGroup extends ViewGroup {
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         int windowMode = mWindowGroupAdapter.getWindowMode();
-        int groupWidth = getMeasuredWidth();
-        int groupHeight = getMeasuredHeight();
-        int windowItemWidth = groupWidth / windowMode;
-        int windowItemHeight = groupHeight / windowMode;
+        WindowGridCalculator grid = mWindowGroupAdapter.getGridCalculator();
+        grid.setGroupSize(getMeasuredWidth(), getMeasuredHeight());
+        int windowItemWidth = grid.getItemWidth();
+        int windowItemHeight = grid.getItemHeight();
         mWindowGroupAdapter.setWindowItemWidth(windowItemWidth);
         mWindowGroupAdapter.setWindowItemHeight(windowItemHeight);
 
-        //重新计算显示的画面
-        getWindowStructList().clear();
-        for (WindowItemView item : getWindowStructAllList()) {
+        //重新计算显示的画面，显示的窗口没有变化时只覆盖原来的位置，不清空列表
+        List<WindowItemView> allList = getWindowStructAllList();
+        List<WindowItemView> showList = getWindowStructList();
+        int showCount = 0;
+        for (int i = 0, size = allList.size(); i < size; i++) {
+            WindowItemView item = allList.get(i);
             if (item.getVisibility() != View.GONE) {
                 calcWindowItem(windowMode, item, item.getWindowSerial());
-                int itemLeft = left + groupWidth * item.getScreenIndex() + windowItemWidth * item.getColumnIndex();
+                int itemLeft = grid.itemLeft(left, item.getScreenIndex(), item.getColumnIndex());
                 int itemRight = itemLeft + windowItemWidth;
-                int itemTop = mOffset / 2 + windowItemHeight * item.getRowIndex();//偏移量的一半就是WindowGroup的paddingTop和paddingBottom
+                int itemTop = grid.itemTop(mOffset, item.getRowIndex());//偏移量的一半就是WindowGroup的paddingTop和paddingBottom
                 int itemBottom = itemTop + windowItemHeight;
                 item.layout(itemLeft, itemTop, itemRight, itemBottom);
-                item.setRectF(left + windowItemWidth * item.getColumnIndex(), itemTop, left + windowItemWidth * item.getColumnIndex() + windowItemWidth, itemBottom);
-                getWindowStructList().add(item);
+                int pageLeft = grid.itemLeftInPage(left, item.getColumnIndex());
+                item.setRectF(pageLeft, itemTop, pageLeft + windowItemWidth, itemBottom);
+                item.updateWindowState(windowItemWidth, windowItemHeight, windowMode == WINDOW_MODE_ONE);
+                if (showCount < showList.size()) {
+                    if (showList.get(showCount) != item) {
+                        showList.set(showCount, item);
+                    }
+                } else {
+                    showList.add(item);
+                }
+                showCount++;
             }
         }
+        for (int i = showList.size() - 1; i >= showCount; i--) {
+            showList.remove(i);
+        }
 
         mRectF.top = top;
         mRectF.left = left;
@@ -310,7 +349,9 @@ public class WindowGroup extends ViewGroup {
             mWindowGroupAdapter.setCurrentWindowItem(currentWindowItem);
 
             if (null != currentWindowItem) {
-                for (final WindowItemView container : getWindowStructAllList()) {
+                List<WindowItemView> allList = getWindowStructAllList();
+                for (int i = 0, size = allList.size(); i < size; i++) {
+                    WindowItemView container = allList.get(i);
                     if (container != currentWindowItem) {
                         container.setViewSelected(false);
                     }
@@ -434,7 +475,7 @@ public class WindowGroup extends ViewGroup {
         if (null == windowItem) {
             return false;
         }
-        int[] location = new int[2];
+        int[] location = mTempLocation;
         windowItem.getLocationInWindow(location);
         int width = windowItem.getWidth();
         int height = windowItem.getHeight();
@@ -470,15 +511,17 @@ public class WindowGroup extends ViewGroup {
                 mLastSwitchEdgeScreenTimeMillis = SystemClock.currentThreadTimeMillis();
             }
 
-            int[] center = getCenterPoint(getCurrentWindowItem());
+            calcCenterPoint(getCurrentWindowItem());
+            int centerX = mMoveCenterX;
+            int centerY = mMoveCenterY;
 
             /* 临界回调 **/
-            if (center[0] > (getWidth() - scaledEdgeSlop)) {
+            if (centerX > (getWidth() - scaledEdgeSlop)) {
                 final WindowGroupAdapter.OnWindowItemScreenEdgeListener edgeListener = mWindowGroupAdapter.getOnWindowItemScreenEdgeListener();
                 if (edgeListener != null) {
                     edgeListener.onRight(getCurrentWindowItem());
                 }
-            } else if (center[0] < scaledEdgeSlop) {
+            } else if (centerX < scaledEdgeSlop) {
                 final WindowGroupAdapter.OnWindowItemScreenEdgeListener edgeListener = mWindowGroupAdapter.getOnWindowItemScreenEdgeListener();
                 if (edgeListener != null) {
                     edgeListener.onLeft(getCurrentWindowItem());
@@ -493,7 +536,7 @@ public class WindowGroup extends ViewGroup {
             }
 
             final WindowGroupAdapter.OnWindowItemScreenEdgeListener edgeListener = mWindowGroupAdapter.getOnWindowItemScreenEdgeListener();
-            if (center[1] < deleteEdgeSlop) {
+            if (centerY < deleteEdgeSlop) {
                 if (edgeListener != null) {
                     edgeListener.onTop(getCurrentWindowItem());
                 }
@@ -550,7 +593,9 @@ public class WindowGroup extends ViewGroup {
         int windowMode = mWindowGroupAdapter.getWindowMode();
         final int firstIndex = mWindowGroupAdapter.getCurrentPage() * windowMode * windowMode;//当前页面第一个
         //final int endIndex = (screenIndex + 1) * (windowMode * windowMode) - 1;//当前页面最后一个索引
-        for (WindowItemView windowItemView : getWindowStructList()) {
+        List<WindowItemView> showList = getWindowStructList();
+        for (int i = 0, size = showList.size(); i < size; i++) {
+            WindowItemView windowItemView = showList.get(i);
             if (windowItemView.getWindowSerial() == firstIndex) {
                 setCurrentWindowItem(windowItemView);//设置当前页第一个窗口为选择
                 break;
@@ -562,6 +607,13 @@ public class WindowGroup extends ViewGroup {
         return mWindowGroupAdapter;
     }
 
+    /**
+     * 同时抓取所有正在播放的窗口，全部完成后在主线程回调，结果中包含记录各窗口OSD时间的清单文件
+     */
+    public void captureAll(CapturePipeline.WallCallback callback) {
+        CapturePipeline.captureAll(mWindowGroupAdapter.getWindowItemStructAllList(), callback);
+    }
+
 
     // *******************  包内 *****************************
 
@@ -569,17 +621,14 @@ public class WindowGroup extends ViewGroup {
      * 加载需要的最大子窗口数
      */
     void initAdapter() {
+        for (int i = getWindowStructAllList().size() - 1; i >= 0; i--) {
+            recycleWindowItem(getWindowStructAllList().get(i));
+        }
         this.removeAllViews();
         getWindowStructAllList().clear();
         getWindowStructList().clear();
-        int windowMode = mWindowGroupAdapter.getWindowMode();
         for (int i = 0; i < mMaxCount + mMoreCount; i++) {
-            WindowItemView windowItem = new PlayWindowView(getContext());
-            windowItem.isPreviewWindow = mWindowType;
-            windowItem.setWindowGroup(this);
-            windowItem.setPadding(WindowItemView.SPACE, WindowItemView.SPACE, WindowItemView.SPACE, WindowItemView.SPACE);
-            windowItem.setWindowSerial(i);
-            calcWindowItem(windowMode, windowItem, i);
+            WindowItemView windowItem = obtainWindowItem(i);
             addView(windowItem);
             getWindowStructAllList().add(windowItem);
             getWindowStructList().add(windowItem);
@@ -591,13 +640,61 @@ public class WindowGroup extends ViewGroup {
     }
 
 
+    /**
+     * 取出一个窗口并绑定到窗口序列号对应的位置，优先复用回收池中的窗口
+     *
+     * @param serial 窗口序列号
+     * @return 窗口
+     */
+    private WindowItemView obtainWindowItem(int serial) {
+        WindowItemView windowItem = mRecycledPool.get();
+        if (windowItem == null) {
+            windowItem = new PlayWindowView(getContext());
+            windowItem.setWindowGroup(this);
+            windowItem.setPadding(WindowItemView.SPACE, WindowItemView.SPACE, WindowItemView.SPACE, WindowItemView.SPACE);
+        }
+        windowItem.isPreviewWindow = mWindowType;
+        windowItem.setWindowSerial(serial);
+        calcWindowItem(mWindowGroupAdapter.getWindowMode(), windowItem, serial);
+        return windowItem;
+    }
+
+    /**
+     * 移除窗口并放到回收池
+     *
+     * @param windowItem 窗口
+     */
+    private void recycleWindowItem(WindowItemView windowItem) {
+        windowItem.recycle();
+        removeView(windowItem);
+        mRecycledPool.put(windowItem);
+    }
+
+    /**
+     * 设置回收池最多缓存的窗口数量，默认16个
+     *
+     * @param maxCount 最多缓存的窗口数量，0表示不缓存
+     */
+    public void setMaxRecycledWindowCount(int maxCount) {
+        mRecycledPool.setMaxScrap(maxCount);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        //回收池中的窗口不会再被使用，释放保留的画布
+        mRecycledPool.clear();
+    }
+
     /**
      * 设置WindowGroup中的窗口模式
      *
      * @param windowMode 窗口模式
      */
     void setWindowMode(@WindowMode int windowMode) {
-        for (WindowItemView windowStruct : getWindowStructList()) {
+        List<WindowItemView> showList = getWindowStructList();
+        for (int i = 0, size = showList.size(); i < size; i++) {
+            WindowItemView windowStruct = showList.get(i);
             calcWindowItem(windowMode, windowStruct, windowStruct.getWindowSerial());
         }
 
@@ -670,9 +767,11 @@ public class WindowGroup extends ViewGroup {
      * @param windowItem 子View
      */
     private void calcWindowItem(@WindowMode int windowMode, WindowItemView windowItem, int serial) {
-        windowItem.setRowIndex(serial % (windowMode * windowMode) / windowMode);
-        windowItem.setColumnIndex(serial % windowMode);
-        windowItem.setScreenIndex(serial / (windowMode * windowMode));
+        WindowGridCalculator grid = mWindowGroupAdapter.getGridCalculator();
+        grid.setWindowMode(windowMode);
+        windowItem.setRowIndex(grid.rowOf(serial));
+        windowItem.setColumnIndex(grid.columnOf(serial));
+        windowItem.setScreenIndex(grid.screenOf(serial));
     }
 
     private WindowItemView getCurrentWindowItem() {
@@ -688,23 +787,26 @@ public class WindowGroup extends ViewGroup {
      * 得到替换的窗口
      *
      * @param curWindowStruct 当前的窗口
-     * @param center          中心坐标
+     * @param centerX         中心x坐标
+     * @param centerY         中心y坐标
      * @return 返回替换的窗口
      */
-    private WindowItemView getReplaceWindowItem(WindowItemView curWindowStruct, int[] center) {
+    private WindowItemView getReplaceWindowItem(WindowItemView curWindowStruct, int centerX, int centerY) {
         if (!mWindowGroupAdapter.isAllowWindowSwap()) {
             return null;
         }
         if (curWindowStruct != null) {
             WindowItemView finalWindowItem = null;
-            for (WindowItemView container : getWindowStructList()) {
+            List<WindowItemView> showList = getWindowStructList();
+            for (int i = 0, size = showList.size(); i < size; i++) {
+                WindowItemView container = showList.get(i);
                 container.setViewReplaced(false);
                 if (container != curWindowStruct) {
                     if (container.getScreenIndex() != curWindowStruct.getScreenIndex()) {
                         //TODO Fixed: 如果不是当前页面，则不进行交换。如果以后要做跨页交换时，有可能会导致冲突
                         continue;
                     }
-                    if (center[0] > container.getLeft() && center[0] < container.getRight() && center[1] > container.getTop() && center[1] < container.getBottom()) {
+                    if (centerX > container.getLeft() && centerX < container.getRight() && centerY > container.getTop() && centerY < container.getBottom()) {
                         container.setViewReplaced(true);
                         finalWindowItem = container;
                     }
@@ -814,9 +916,9 @@ public class WindowGroup extends ViewGroup {
                     }
                 }
                 if (LONG == mClickMode) {
-                    int[] center = move(getCurrentWindowItem(), (int) deltaX, (int) deltaY);
+                    move(getCurrentWindowItem(), (int) deltaX, (int) deltaY);
 
-                    final WindowItemView replaceWindowItem = getReplaceWindowItem(getCurrentWindowItem(), center);
+                    final WindowItemView replaceWindowItem = getReplaceWindowItem(getCurrentWindowItem(), mMoveCenterX, mMoveCenterY);
                     mWindowGroupAdapter.setReplaceWindowItem(replaceWindowItem);
 
                     final WindowGroupAdapter.OnViewGroupTouchEventListener onViewGroupTouchEventListener = mWindowGroupAdapter.getOnViewGroupTouchEventListener();
@@ -853,9 +955,7 @@ public class WindowGroup extends ViewGroup {
      * @return 是否能移动
      */
     private boolean isCanMove(int deltaX) {
-        int minTouchSLop = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
-                TOUCH_SLOP >> 1, getResources().getDisplayMetrics());
-        if (Math.abs(deltaX) < minTouchSLop) {
+        if (Math.abs(deltaX) < mScrollSlopPx) {
             return false;
         }
 
@@ -873,9 +973,8 @@ public class WindowGroup extends ViewGroup {
      * @param view   窗口
      * @param deltaX x轴偏移量
      * @param deltaY y轴偏移量
-     * @return 移动后的坐标数组
      */
-    private int[] move(WindowItemView view, int deltaX, int deltaY) {
+    private void move(WindowItemView view, int deltaX, int deltaY) {
         if (view == null) {
             throw new NullPointerException("windowStruct is null...  空指针了...");
         }
@@ -886,28 +985,23 @@ public class WindowGroup extends ViewGroup {
         view.layout(left, top, right, bottom);
         view.invalidate();
 
-        int curCenterX = (right + left) / 2;
-        int curCenterY = (top + bottom) / 2;
-        return new int[]{curCenterX, curCenterY};
+        //移动后的中心坐标
+        mMoveCenterX = (right + left) / 2;
+        mMoveCenterY = (top + bottom) / 2;
     }
 
     /**
-     * 获取中心点
+     * 计算窗口在当前页中的中心点，结果保存在mMoveCenterX、mMoveCenterY中
      *
      * @param view 窗口
-     * @return 当前窗口所在的中心坐标
      */
-    private int[] getCenterPoint(WindowItemView view) {
+    private void calcCenterPoint(WindowItemView view) {
         if (view == null) {
             throw new NullPointerException("windowStruct is null...  空指针了...");
         }
-        int left = view.getLeft() - view.getScreenIndex() * getWidth();
-        int right = left + view.getWidth();
-        int top = view.getTop();
-        int bottom = top + view.getHeight();
-        int curCenterX = (right + left) / 2;
-        int curCenterY = (top + bottom) / 2;
-        return new int[]{curCenterX, curCenterY};
+        WindowGridCalculator grid = mWindowGroupAdapter.getGridCalculator();
+        mMoveCenterX = grid.centerXInPage(view.getLeft(), view.getWidth(), view.getScreenIndex());
+        mMoveCenterY = grid.centerY(view.getTop(), view.getHeight());
     }
 
     /**
@@ -918,9 +1012,7 @@ public class WindowGroup extends ViewGroup {
      * @return true-可以移动 false-不可以移动
      */
     private boolean isCanMove(float deltaX, float deltaY) {
-        float v = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, TOUCH_SLOP,
-                getResources().getDisplayMetrics());
-        return (Math.abs(deltaX) > v) || (Math.abs(deltaY) > v);
+        return (Math.abs(deltaX) > mMoveSlopPx) || (Math.abs(deltaY) > mMoveSlopPx);
     }
 
     /**
@@ -1053,9 +1145,9 @@ public class WindowGroup extends ViewGroup {
      */
     private void refreshAndDelWindow() {
         for (int i = mLastMaxCount; i > mWindowGroupAdapter.getMaxCount(); i--) {
-            WindowItemView windowItem = getWindowStructAllList().get(i - 1);
-            removeView(windowItem);
-            getWindowStructAllList().remove(windowItem);
+            //从队尾按下标删除，不需要遍历查找
+            WindowItemView windowItem = getWindowStructAllList().remove(i - 1);
+            recycleWindowItem(windowItem);
             getWindowStructList().remove(windowItem);
         }
         mWindowGroupAdapter.refreshWindow();
@@ -1069,11 +1161,7 @@ public class WindowGroup extends ViewGroup {
      */
     private void refreshAndAddMoreWindow(int currentMoreCount) {
         for (int i = 0; i < currentMoreCount; i++) {
-            WindowItemView windowItem = new PlayWindowView(getContext());
-            windowItem.isPreviewWindow = mWindowType;
-            windowItem.setWindowGroup(this);
-            windowItem.setPadding(WindowItemView.SPACE, WindowItemView.SPACE, WindowItemView.SPACE, WindowItemView.SPACE);
-            windowItem.setWindowSerial(mLastMaxCount + i);
+            WindowItemView windowItem = obtainWindowItem(mLastMaxCount + i);
             addView(windowItem);
             getWindowStructAllList().add(windowItem);
             getWindowStructList().add(windowItem);
@@ -1088,7 +1176,8 @@ public class WindowGroup extends ViewGroup {
      */
     public void deleteNotUseWindowGroupByScreen(int[] screenIndexArray) {
         boolean isNeedRefreshWindow = false;
-        List<WindowItemView> deleteWindowItemViewList = new ArrayList<>();
+        //用HashSet保存要删除的窗口，removeAll时查找是O(1)
+        Set<WindowItemView> deleteWindowItemViewList = new HashSet<>();
         for (int i = 0; i < screenIndexArray.length; i++) {
             //当前分屏页码
             //当前分屏中正在使用的窗体数量
@@ -1104,7 +1193,7 @@ public class WindowGroup extends ViewGroup {
             int perScreenWindNum = mWindowMode * mWindowMode;
             for (int j = 0; j < perScreenWindNum; j++) {
                 WindowItemView windowItem = getWindowStructAllList().get(i * perScreenWindNum + j);
-                removeView(windowItem);
+                recycleWindowItem(windowItem);
                 deleteWindowItemViewList.add(windowItem);
             }
             isNeedRefreshWindow = true;
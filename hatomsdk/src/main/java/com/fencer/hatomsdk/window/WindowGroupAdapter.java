@@ -8,7 +8,12 @@ import android.util.Log;
 import android.view.View;
 import android.view.ViewConfiguration;
 
-import java.util.LinkedList;
+import com.fencer.hatomsdk.HatomSdk;
+import com.fencer.hatomsdk.StreamQualityPolicy;
+import com.fencer.hatomsdk.StreamRequest;
+import com.fencer.hatomsdk.StreamUrlCache;
+
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -112,8 +117,12 @@ public class WindowGroupAdapter {
     /**
      * 子view的引用
      */
-    private final List<WindowItemView> mItemWindowStructList = new LinkedList<>();
-    private final List<WindowItemView> mItemWindowStructAllList = new LinkedList<>();
+    private final ArrayList<WindowItemView> mItemWindowStructList = new ArrayList<>();
+    private final ArrayList<WindowItemView> mItemWindowStructAllList = new ArrayList<>();
+    /**
+     * 当前分屏模式的网格计算
+     */
+    private final WindowGridCalculator mGridCalculator = new WindowGridCalculator();
     /**
      * 用户当前操作的子view
      */
@@ -127,6 +136,18 @@ public class WindowGroupAdapter {
      */
     private WindowItemView mLastContainer;
     private WindowGroup.PagerObserver mObserver;
+    /**
+     * 码流分级策略，为空时所有窗口都使用主码流
+     */
+    private StreamQualityPolicy mStreamQualityPolicy;
+    /**
+     * 是否预连接相邻页的窗口
+     */
+    private boolean mPreConnectEnable = false;
+    /**
+     * 预连接的窗口保持取流的最长时间，超时后关闭
+     */
+    private long mPreConnectKeepAliveTime = 30_000L;
 
     /* package */ WindowGroupAdapter(WindowGroup windowGroup) {
         mWindowGroup = windowGroup;
@@ -224,8 +245,8 @@ public class WindowGroupAdapter {
         }
         mLastWindowMode = mWindowMode;
         mWindowMode = windowMode;
-        int temp = getShowWindowMaxCount() / (windowMode * windowMode);
-        mScreenCount = (getShowWindowMaxCount() % (windowMode * windowMode) == 0) ? temp : (temp + 1);
+        mGridCalculator.setWindowMode(windowMode);
+        mScreenCount = mGridCalculator.screenCount(getShowWindowMaxCount());
         mWindowGroup.setWindowMode(windowMode);
         if (mCurrentWindowItem != null) {
             setCurrentPage(mCurrentWindowItem.getScreenIndex());
@@ -238,8 +259,7 @@ public class WindowGroupAdapter {
     }
 
     void refreshWindow() {
-        int temp = getShowWindowMaxCount() / (mWindowMode * mWindowMode);
-        mScreenCount = (getShowWindowMaxCount() % (mWindowMode * mWindowMode) == 0) ? temp : (temp + 1);
+        mScreenCount = mGridCalculator.screenCount(getShowWindowMaxCount());
         mWindowGroup.setWindowMode(mWindowMode);
         if (mCurrentWindowItem != null) {
             setCurrentPage(mCurrentWindowItem.getScreenIndex());
@@ -346,7 +366,8 @@ public class WindowGroupAdapter {
         if (showWindowMaxCount > windowItemStructList.size()) {
             showWindowMaxCount = windowItemStructList.size();
         }
-        for (WindowItemView item : windowItemStructList) {
+        for (int i = 0, size = windowItemStructList.size(); i < size; i++) {
+            WindowItemView item = windowItemStructList.get(i);
             int windowSerial = item.getWindowSerial();
             if (windowSerial < showWindowMaxCount) {
                 item.setVisibility(View.VISIBLE);
@@ -398,15 +419,29 @@ public class WindowGroupAdapter {
      * @param currWindowMode 分屏模式
      */
     public void setPageChangeEvent(int curPage, int currWindowMode) {
-        int pagerSize = (int) Math.pow(currWindowMode, 2);
+        int pagerSize = currWindowMode * currWindowMode;
         //当前页面中窗口的开始序号和结束序号
         int startIndex = curPage * pagerSize;
         int endIndex = startIndex + pagerSize - 1;
-        Log.d(TAG, "当前页码 = 第" + curPage + "页, startIndex = " + startIndex + ", endIndex = " + endIndex + "，共有" + getScreenCount() + "屏");
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "当前页码 = 第" + curPage + "页, startIndex = " + startIndex + ", endIndex = " + endIndex + "，共有" + getScreenCount() + "屏");
+        }
+        //相邻页窗口的开始序号和结束序号
+        int preConnectStart = mPreConnectEnable ? startIndex - pagerSize : startIndex;
+        int preConnectEnd = mPreConnectEnable ? endIndex + pagerSize : endIndex;
+        List<WindowItemView> windowItemStructAllList = getWindowItemStructAllList();
+        //先批量预取当前页和相邻页的取流地址，窗口开启播放时共用这一次解析
+        prefetchStreamUrls(windowItemStructAllList, startIndex - pagerSize, endIndex + pagerSize);
         //设置WindowItemView对用户可见或不可见
-        for (WindowItemView itemView : getWindowItemStructAllList()) {
+        for (int i = 0, size = windowItemStructAllList.size(); i < size; i++) {
+            WindowItemView itemView = windowItemStructAllList.get(i);
             int serial = itemView.getWindowSerial();
             if (serial < startIndex || serial > endIndex) {
+                //先设置预连接，再设置不可见，窗口据此决定是关闭播放还是只暂停解码
+                boolean isPreConnect = serial >= preConnectStart && serial <= preConnectEnd;
+                if (itemView.getPreConnectHint() != isPreConnect) {
+                    itemView.setPreConnectHint(isPreConnect);
+                }
                 if (itemView.getUserVisibleHint()) {
                     itemView.setUserVisibleHint(false);
                 }
@@ -414,10 +449,72 @@ public class WindowGroupAdapter {
                 if (!itemView.getUserVisibleHint()) {
                     itemView.setUserVisibleHint(true);
                 }
+                if (itemView.getPreConnectHint()) {
+                    itemView.setPreConnectHint(false);
+                }
             }
         }
     }
 
+    /**
+     * 合并序号在[start, end]之间的窗口的取流请求，一次交给取流地址缓存预取
+     */
+    private void prefetchStreamUrls(List<WindowItemView> itemViews, int start, int end) {
+        StreamUrlCache cache = HatomSdk.getStreamUrlCache();
+        if (cache == null) {
+            return;
+        }
+        ArrayList<StreamRequest> requests = null;
+        for (int i = 0, size = itemViews.size(); i < size; i++) {
+            WindowItemView itemView = itemViews.get(i);
+            int serial = itemView.getWindowSerial();
+            if (serial < start || serial > end) {
+                continue;
+            }
+            StreamRequest request = itemView.getStreamRequest();
+            if (request == null) {
+                continue;
+            }
+            if (requests == null) {
+                requests = new ArrayList<>();
+            }
+            requests.add(request);
+        }
+        if (requests != null) {
+            cache.prefetch(requests);
+        }
+    }
+
+    /**
+     * 设置是否预连接当前页的前一页和后一页，滑动翻页时不需要重新取流
+     *
+     * @param enable 是否开启预连接
+     */
+    public void setPreConnectEnable(boolean enable) {
+        if (mPreConnectEnable == enable) {
+            return;
+        }
+        mPreConnectEnable = enable;
+        setPageChangeEvent(getCurrentPage(), getWindowMode());
+    }
+
+    public boolean isPreConnectEnable() {
+        return mPreConnectEnable;
+    }
+
+    /**
+     * 设置预连接的保活时间，相邻页的窗口超过该时间没有被显示就关闭取流
+     *
+     * @param keepAliveTime 保活时间，单位毫秒
+     */
+    public void setPreConnectKeepAliveTime(long keepAliveTime) {
+        mPreConnectKeepAliveTime = keepAliveTime;
+    }
+
+    public long getPreConnectKeepAliveTime() {
+        return mPreConnectKeepAliveTime;
+    }
+
 
     /**
      * 刷新当前播放窗口的数量，仅在窗口模式变化时调用，此时用来增补窗口
@@ -494,6 +591,10 @@ public class WindowGroupAdapter {
         return mItemWindowStructAllList;
     }
 
+    /* package */ WindowGridCalculator getGridCalculator() {
+        return mGridCalculator;
+    }
+
     /**
      * 判断是否接受触碰
      *
@@ -545,6 +646,22 @@ public class WindowGroupAdapter {
         this.mIsAllowWindowSwap = mIsAllowWindowSwap;
     }
 
+    /**
+     * 设置码流分级策略，设置后窗口会根据自身大小和选中状态自动切换主子码流
+     *
+     * @param policy 码流分级策略，为空时关闭自动切换
+     */
+    public void setStreamQualityPolicy(StreamQualityPolicy policy) {
+        mStreamQualityPolicy = policy;
+        for (WindowItemView itemView : getWindowItemStructAllList()) {
+            itemView.dispatchWindowState();
+        }
+    }
+
+    public StreamQualityPolicy getStreamQualityPolicy() {
+        return mStreamQualityPolicy;
+    }
+
     /**
      * 获得左右边界宽度
      *
@@ -0,0 +1,78 @@
+package com.fencer.hatomsdk.window;
+
+import java.util.ArrayList;
+
+
+/**
+ * <p>WindowGroup中被移除的窗口回收池</p>
+ * 窗口数量或分屏模式变化时，被移除的窗口先放到这里，需要新窗口时优先复用，
+ * 避免反复加载布局和创建TextureView，超过上限的窗口直接销毁
+ *
+ * @name WindowItemRecycledPool
+ */
+/* package */ class WindowItemRecycledPool {
+    /**
+     * 默认最多缓存的窗口数量
+     */
+    static final int DEFAULT_MAX_SCRAP = 16;
+    /**
+     * 缓存的窗口
+     */
+    private final ArrayList<WindowItemView> mScrap = new ArrayList<>();
+    /**
+     * 最多缓存的窗口数量
+     */
+    private int mMaxScrap = DEFAULT_MAX_SCRAP;
+
+    /**
+     * 取出一个缓存的窗口
+     *
+     * @return 没有缓存时返回null
+     */
+    WindowItemView get() {
+        int size = mScrap.size();
+        if (size == 0) {
+            return null;
+        }
+        return mScrap.remove(size - 1);
+    }
+
+    /**
+     * 回收一个已经从WindowGroup中移除的窗口
+     *
+     * @param windowItem 窗口
+     */
+    void put(WindowItemView windowItem) {
+        if (mScrap.size() >= mMaxScrap || mScrap.contains(windowItem)) {
+            windowItem.onDiscarded();
+            return;
+        }
+        mScrap.add(windowItem);
+    }
+
+    /**
+     * 设置最多缓存的窗口数量，多出来的窗口会被销毁
+     *
+     * @param maxScrap 最多缓存的窗口数量
+     */
+    void setMaxScrap(int maxScrap) {
+        mMaxScrap = Math.max(0, maxScrap);
+        while (mScrap.size() > mMaxScrap) {
+            mScrap.remove(mScrap.size() - 1).onDiscarded();
+        }
+    }
+
+    int size() {
+        return mScrap.size();
+    }
+
+    /**
+     * 销毁所有缓存的窗口
+     */
+    void clear() {
+        for (int i = 0; i < mScrap.size(); i++) {
+            mScrap.get(i).onDiscarded();
+        }
+        mScrap.clear();
+    }
+}
@@ -15,6 +15,7 @@ import androidx.core.content.ContextCompat;
 import com.blankj.utilcode.util.ScreenUtils;
 import com.blankj.utilcode.util.Utils;
 import com.fencer.hatomsdk.R;
+import com.fencer.hatomsdk.StreamRequest;
 
 
 /**
@@ -85,6 +86,10 @@ public class WindowItemView extends ConstraintLayout {
      * 用户是否可见这个窗口,默认用户是可见的
      */
     private boolean mUserVisibleHint = true;
+    /**
+     * 窗口是否在当前页的相邻页，需要预连接
+     */
+    private boolean mPreConnectHint = false;
     /**
      * 窗口选择监听
      */
@@ -112,6 +117,23 @@ public class WindowItemView extends ConstraintLayout {
      * View大小
      */
     private final RectF mRectF = new RectF();
+    /**
+     * @return 窗口当前是否需要预连接
+     * @see #setPreConnectHint(boolean)
+     */
+    public boolean getPreConnectHint() {
+        return this.mPreConnectHint;
+    }
+
+    /**
+     * 窗口所在的页是否是当前页的相邻页，相邻页的窗口可以保持取流但不解码，滑动到该页时马上出图
+     *
+     * @param isPreConnect true - 窗口在相邻页，false - 窗口在当前页或者更远的页
+     */
+    public void setPreConnectHint(boolean isPreConnect) {
+        this.mPreConnectHint = isPreConnect;
+    }
+
     /**
      * 拖动窗口放大缩小动画使能
      */
@@ -136,6 +158,12 @@ public class WindowItemView extends ConstraintLayout {
      * 当前选中的窗口
      */
     private WindowItemView mCurrentSelectWindowItemView;
+    /**
+     * 上一次布局时窗口在WindowGroup中的宽高，以及是否是单画面
+     */
+    private int mLayoutWidth;
+    private int mLayoutHeight;
+    private boolean mIsFullScreen;
 
     public WindowItemView(Context context) {
         super(context);
@@ -158,6 +186,10 @@ public class WindowItemView extends ConstraintLayout {
         mWindowGroup = windowGroup;
     }
 
+    protected WindowGroup getWindowGroup() {
+        return mWindowGroup;
+    }
+
 
     @Override
     protected void onDraw(Canvas canvas) {
@@ -308,6 +340,13 @@ public class WindowItemView extends ConstraintLayout {
         return false;
     }
 
+    /**
+     * @return 窗口按监控点取流时的请求，翻页时用来批量预取取流地址，没有时返回null
+     */
+    public StreamRequest getStreamRequest() {
+        return null;
+    }
+
     /**
      * 当有两个手指按在屏幕上时，计算两指之间的距离
      *
@@ -330,10 +369,79 @@ public class WindowItemView extends ConstraintLayout {
             if (null != mSelectedListener) {
                 mSelectedListener.onWindowSelected(this, isSelected);
             }
+            if (mLayoutWidth > 0) {
+                onWindowStateChanged(mLayoutWidth, mLayoutHeight, isSelected, mIsFullScreen);
+            }
             this.postInvalidate();
         }
     }
 
+    /**
+     * WindowGroup布局时同步窗口的尺寸，只有变化时才回调
+     *
+     * @param width        窗口宽度
+     * @param height       窗口高度
+     * @param isFullScreen 是否是单画面
+     */
+    /* package */ void updateWindowState(int width, int height, boolean isFullScreen) {
+        if (mLayoutWidth == width && mLayoutHeight == height && mIsFullScreen == isFullScreen) {
+            return;
+        }
+        mLayoutWidth = width;
+        mLayoutHeight = height;
+        mIsFullScreen = isFullScreen;
+        onWindowStateChanged(width, height, mIsViewSelected, isFullScreen);
+    }
+
+    /**
+     * 按上一次布局的状态重新回调一次，用于策略变化后刷新
+     */
+    /* package */ void dispatchWindowState() {
+        if (mLayoutWidth > 0) {
+            onWindowStateChanged(mLayoutWidth, mLayoutHeight, mIsViewSelected, mIsFullScreen);
+        }
+    }
+
+    /**
+     * 窗口在WindowGroup中的尺寸、选中状态或分屏模式发生变化，子类可以据此调整码流
+     *
+     * @param width        窗口宽度
+     * @param height       窗口高度
+     * @param isSelected   是否被选中
+     * @param isFullScreen 是否是单画面
+     */
+    protected void onWindowStateChanged(int width, int height, boolean isSelected, boolean isFullScreen) {
+    }
+
+    /**
+     * 窗口被WindowGroup移除放到回收池前调用，恢复成刚创建时的状态
+     */
+    /* package */ void recycle() {
+        onRecycled();
+        mLayoutWidth = 0;
+        mLayoutHeight = 0;
+        mIsFullScreen = false;
+        mIsViewReplaced = false;
+        setViewSelected(false);
+        mUserVisibleHint = true;
+        mPreConnectHint = false;
+        setScaleX(1.0f);
+        setScaleY(1.0f);
+        setAlpha(1.0f);
+    }
+
+    /**
+     * 窗口即将被回收，子类在这里停止播放、重置状态，回收后会通过{@link #setWindowSerial(int)}重新绑定位置
+     */
+    protected void onRecycled() {
+    }
+
+    /**
+     * 回收池已满或者被清空，窗口不会再被使用，子类在这里释放资源
+     */
+    protected void onDiscarded() {
+    }
+
     public void setWindowSelectedColor(@ColorInt int color) {
         mSelectColor = color;
         this.postInvalidate();
@@ -0,0 +1,191 @@
+package com.fencer.hatomsdk
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+import kotlin.random.Random
+
+
+/**
+ * 平台时间格式的编解码，和SimpleDateFormat的结果逐个对比，覆盖半小时、45分钟时区和夏令时切换
+ */
+class IsoTimeCodecTest {
+
+    companion object {
+        private val ZONES = listOf(
+            "Asia/Shanghai",
+            "UTC",
+            "America/New_York",
+            "Europe/London",
+            //夏令时只差半小时
+            "Australia/Lord_Howe",
+            "Asia/Kolkata",
+            "America/St_Johns",
+            "Pacific/Chatham"
+        )
+
+        /*2100-01-01T00:00:00Z*/
+        private const val END_MILLIS = 4_102_444_800_000L
+
+        private const val HOUR = 3_600_000L
+    }
+
+    @After
+    fun tearDown() {
+        IsoTimeCodec.setTimeZone(null)
+    }
+
+    @Test
+    fun matchesSimpleDateFormatAtRandomInstants() {
+        val random = Random(20181507)
+        for (id in ZONES) {
+            val zone = TimeZone.getTimeZone(id)
+            IsoTimeCodec.setTimeZone(zone)
+            val reference = reference(zone)
+            repeat(2_000) {
+                check(random.nextLong(0L, END_MILLIS), reference)
+            }
+        }
+    }
+
+    @Test
+    fun matchesSimpleDateFormatAroundOffsetChanges() {
+        for (id in ZONES) {
+            val zone = TimeZone.getTimeZone(id)
+            IsoTimeCodec.setTimeZone(zone)
+            val reference = reference(zone)
+            for (transition in transitions(zone)) {
+                for (delta in longArrayOf(-HOUR, -1_800_000L, -1_000L, -1L, 0L, 1L, 1_000L, 1_800_000L, HOUR)) {
+                    check(transition + delta, reference)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun sameDayCacheFollowsZoneChange() {
+        val millis = 1_525_675_317_819L
+        IsoTimeCodec.setTimeZone(TimeZone.getTimeZone("Asia/Shanghai"))
+        assertEquals("2018-05-07T14:41:57.819+08:00", IsoTimeCodec.format(millis))
+        IsoTimeCodec.setTimeZone(TimeZone.getTimeZone("America/New_York"))
+        assertEquals("2018-05-07T02:41:57.819-04:00", IsoTimeCodec.format(millis))
+        IsoTimeCodec.setTimeZone(TimeZone.getTimeZone("Pacific/Chatham"))
+        assertEquals("2018-05-07T19:26:57.819+12:45", IsoTimeCodec.format(millis))
+    }
+
+    @Test
+    fun formatsBeforeEpochInUtc() {
+        IsoTimeCodec.setTimeZone(TimeZone.getTimeZone("UTC"))
+        assertEquals("1969-12-31T23:59:59.999+00:00", IsoTimeCodec.format(-1L))
+        assertEquals("1970-01-01T00:00:00.000+00:00", IsoTimeCodec.format(0L))
+        assertEquals(-1L, IsoTimeCodec.parse("1969-12-31T23:59:59.999+00:00"))
+    }
+
+    @Test
+    fun appendsToBuilderAndArray() {
+        IsoTimeCodec.setTimeZone(TimeZone.getTimeZone("Asia/Shanghai"))
+        val millis = 1_525_675_317_819L
+        val builder = StringBuilder("time=")
+        IsoTimeCodec.format(millis, builder)
+        assertEquals("time=2018-05-07T14:41:57.819+08:00", builder.toString())
+
+        val chars = CharArray(IsoTimeCodec.LENGTH + 2) { '#' }
+        IsoTimeCodec.format(millis, chars, 1)
+        assertEquals("#2018-05-07T14:41:57.819+08:00#", String(chars))
+    }
+
+    @Test
+    fun parsesAcceptedVariants() {
+        val millis = 1_525_675_317_819L
+        val seconds = 1_525_675_317_000L
+        assertEquals(millis, IsoTimeCodec.parse("2018-05-07T14:41:57.819+08:00"))
+        assertEquals(millis, IsoTimeCodec.parse("2018-05-07T14:41:57.819+0800"))
+        assertEquals(millis, IsoTimeCodec.parse("2018-05-07T14:41:57.819+08"))
+        assertEquals(millis, IsoTimeCodec.parse("2018-05-07T06:41:57.819Z"))
+        assertEquals(millis, IsoTimeCodec.parse("2018-05-07T02:41:57.819-04:00"))
+        assertEquals(seconds, IsoTimeCodec.parse("2018-05-07T14:41:57+08:00"))
+        assertEquals(seconds + 800L, IsoTimeCodec.parse("2018-05-07T14:41:57.8+08:00"))
+        //超过毫秒的部分直接截掉
+        assertEquals(millis, IsoTimeCodec.parse("2018-05-07T14:41:57.819999+08:00"))
+        assertEquals(1_709_164_800_000L, IsoTimeCodec.parse("2024-02-29T00:00:00.000Z"))
+    }
+
+    @Test
+    fun rejectsInvalidText() {
+        val invalid = listOf(
+            "",
+            "2018-05-07",
+            "2018-05-07 14:41:57.819+08:00",
+            "2018-05-07T14:41:57.819",
+            "2018-05-07T14:41:57.+08:00",
+            "2018-02-29T14:41:57.819+08:00",
+            "2018-13-07T14:41:57.819+08:00",
+            "2018-05-07T24:41:57.819+08:00",
+            "2018-05-07T14:41:57.819Z1",
+            "2018-05-07T14:41:57.819+08:0",
+            "2018-05-07T14:41:57.819+19:00",
+            "2018-05-O7T14:41:57.819+08:00"
+        )
+        for (text in invalid) {
+            try {
+                IsoTimeCodec.parse(text)
+                fail("accepted $text")
+            } catch (expected: IllegalArgumentException) {
+            }
+        }
+        try {
+            IsoTimeCodec.parse(null)
+            fail("accepted null")
+        } catch (expected: IllegalArgumentException) {
+        }
+    }
+
+    @Test
+    fun nullZoneResetsToDefault() {
+        IsoTimeCodec.setTimeZone(TimeZone.getTimeZone("Pacific/Chatham"))
+        IsoTimeCodec.setTimeZone(null)
+        assertEquals(TimeZone.getDefault().id, IsoTimeCodec.getTimeZone().id)
+    }
+
+    private fun check(millis: Long, reference: SimpleDateFormat) {
+        val expected = reference.format(millis).let {
+            //SimpleDateFormat的XXX在零时区输出Z
+            if (it.endsWith("Z")) it.dropLast(1) + "+00:00" else it
+        }
+        val formatted = IsoTimeCodec.format(millis)
+        assertEquals("${reference.timeZone.id} $millis", expected, formatted)
+        assertEquals("${reference.timeZone.id} $formatted", millis, IsoTimeCodec.parse(formatted))
+    }
+
+    private fun reference(zone: TimeZone): SimpleDateFormat {
+        return SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.US).apply { timeZone = zone }
+    }
+
+    /**
+     * 1970到2100年间时区偏移变化的时刻，每6小时采样一次，有变化时二分查找到毫秒
+     */
+    private fun transitions(zone: TimeZone): List<Long> {
+        val result = ArrayList<Long>()
+        val step = 6 * HOUR
+        var previous = 0L
+        var time = step
+        while (time < END_MILLIS) {
+            if (zone.getOffset(previous) != zone.getOffset(time)) {
+                var low = previous
+                var high = time
+                while (high - low > 1) {
+                    val mid = (low + high) ushr 1
+                    if (zone.getOffset(mid) == zone.getOffset(previous)) low = mid else high = mid
+                }
+                result.add(high)
+            }
+            previous = time
+            time += step
+        }
+        return result
+    }
+}
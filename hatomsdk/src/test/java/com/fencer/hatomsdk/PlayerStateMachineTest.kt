@@ -0,0 +1,192 @@
+package com.fencer.hatomsdk
+
+import android.os.Looper
+import com.fencer.hatomsdk.PlayerState.CONNECTING
+import com.fencer.hatomsdk.PlayerState.FAILED
+import com.fencer.hatomsdk.PlayerState.IDLE
+import com.fencer.hatomsdk.PlayerState.PAUSED
+import com.fencer.hatomsdk.PlayerState.PLAYING
+import com.fencer.hatomsdk.PlayerState.RECONNECTING
+import com.fencer.hatomsdk.PlayerState.SEEKING
+import com.fencer.hatomsdk.PlayerState.STOPPED
+import com.fencer.hatomsdk.PlayerState.STOPPING
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.time.Duration
+
+
+/**
+ * 播放器状态机，按状态变化表逐个检查所有from->to组合
+ */
+@RunWith(RobolectricTestRunner::class)
+class PlayerStateMachineTest {
+
+    companion object {
+        /**
+         * 允许的状态变化，和PlayerStateMachine里的表单独维护，表改动时这里要一起确认
+         */
+        private val ALLOWED = mapOf(
+            IDLE to setOf(CONNECTING),
+            CONNECTING to setOf(PLAYING, RECONNECTING, STOPPING, FAILED),
+            PLAYING to setOf(CONNECTING, SEEKING, PAUSED, RECONNECTING, STOPPING, FAILED),
+            SEEKING to setOf(CONNECTING, PLAYING, PAUSED, RECONNECTING, STOPPING, FAILED),
+            PAUSED to setOf(CONNECTING, PLAYING, SEEKING, RECONNECTING, STOPPING, FAILED),
+            RECONNECTING to setOf(CONNECTING, STOPPING, FAILED),
+            STOPPING to setOf(STOPPED, CONNECTING, RECONNECTING, FAILED),
+            STOPPED to setOf(CONNECTING, RECONNECTING, FAILED, IDLE),
+            FAILED to setOf(CONNECTING, STOPPING, IDLE)
+        )
+
+        /**
+         * 从IDLE走到各状态的合法路径
+         */
+        private val ROUTES = mapOf(
+            IDLE to listOf(),
+            CONNECTING to listOf(CONNECTING),
+            PLAYING to listOf(CONNECTING, PLAYING),
+            SEEKING to listOf(CONNECTING, PLAYING, SEEKING),
+            PAUSED to listOf(CONNECTING, PLAYING, PAUSED),
+            RECONNECTING to listOf(CONNECTING, RECONNECTING),
+            STOPPING to listOf(CONNECTING, STOPPING),
+            STOPPED to listOf(CONNECTING, STOPPING, STOPPED),
+            FAILED to listOf(CONNECTING, FAILED)
+        )
+    }
+
+    private val transitions = ArrayList<String>()
+
+    private val rejections = ArrayList<String>()
+
+    private val changes = ArrayList<PlayerState>()
+
+    @Before
+    fun setUp() {
+        PlayerStateMachine.transitionListener = object : PlayerStateMachine.TransitionListener {
+            override fun onTransition(name: String, from: PlayerState, to: PlayerState, durationMs: Long) {
+                transitions.add("$name:$from->$to:$durationMs")
+            }
+
+            override fun onTransitionRejected(name: String, from: PlayerState, to: PlayerState) {
+                rejections.add("$name:$from->$to")
+            }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        PlayerStateMachine.transitionListener = null
+    }
+
+    @Test
+    fun everyTransitionFollowsTable() {
+        for (from in PlayerState.values()) {
+            for (to in PlayerState.values()) {
+                val machine = machineIn(from)
+                rejections.clear()
+                val allowed = from == to || ALLOWED.getValue(from).contains(to)
+                assertEquals("$from -> $to", allowed, machine.moveTo(to))
+                assertEquals("$from -> $to", if (allowed) to else from, machine.state)
+                //相同状态直接返回true，不算拒绝
+                assertEquals("$from -> $to", if (allowed) 0 else 1, rejections.size)
+            }
+        }
+    }
+
+    @Test
+    fun rejectedTransitionIsReported() {
+        val machine = PlayerStateMachine("window-0") { changes.add(it) }
+        assertFalse(machine.moveTo(PLAYING))
+        assertEquals(listOf("window-0:IDLE->PLAYING"), rejections)
+        assertTrue(changes.isEmpty())
+        assertTrue(transitions.isEmpty())
+    }
+
+    @Test
+    fun lateFrameAfterStopIsRejected() {
+        val machine = machineIn(STOPPED)
+        //停止后才收到的出图回调
+        assertFalse(machine.moveTo(PLAYING))
+        assertFalse(machine.moveTo(CONNECTING, PLAYING))
+        assertEquals(STOPPED, machine.state)
+    }
+
+    @Test
+    fun compareAndSetOnlyMovesFromExpectedState() {
+        val machine = machineIn(CONNECTING)
+        rejections.clear()
+        assertFalse(machine.moveTo(PLAYING, PAUSED))
+        assertEquals(CONNECTING, machine.state)
+        //from不一致是正常的竞争，不算拒绝
+        assertTrue(rejections.isEmpty())
+
+        assertTrue(machine.moveTo(CONNECTING, PLAYING))
+        assertEquals(PLAYING, machine.state)
+        assertTrue(machine.moveTo(PLAYING, PLAYING))
+        //from一致但变化不合法时仍然拒绝
+        assertFalse(machine.moveTo(PLAYING, IDLE))
+        assertEquals(listOf("test:PLAYING->IDLE"), rejections)
+    }
+
+    @Test
+    fun notifiesChangesAndDurations() {
+        val machine = PlayerStateMachine("window-1") { changes.add(it) }
+        advance(100L)
+        machine.moveTo(CONNECTING)
+        advance(250L)
+        machine.moveTo(PLAYING)
+        //相同状态不通知
+        machine.moveTo(PLAYING)
+        advance(40L)
+        assertEquals(listOf(CONNECTING, PLAYING), changes)
+        assertEquals(
+            listOf("window-1:IDLE->CONNECTING:100", "window-1:CONNECTING->PLAYING:250"),
+            transitions
+        )
+        assertEquals(250L, machine.timeIn(CONNECTING))
+        assertEquals(40L, machine.timeIn(PLAYING))
+        assertEquals(0L, machine.timeIn(FAILED))
+        assertTrue(machine.isIn(PAUSED, PLAYING))
+        assertFalse(machine.isIn(IDLE, STOPPED))
+    }
+
+    @Test
+    fun mapsToPublicPlayStatus() {
+        val expected = mapOf(
+            IDLE to PlayStatus.IDLE,
+            CONNECTING to PlayStatus.LOADING,
+            PLAYING to PlayStatus.PLAYING,
+            SEEKING to PlayStatus.PLAYING,
+            PAUSED to PlayStatus.PLAYING,
+            RECONNECTING to PlayStatus.RECONNECTING,
+            STOPPING to PlayStatus.STOP,
+            STOPPED to PlayStatus.STOP,
+            FAILED to PlayStatus.FAIL
+        )
+        for (state in PlayerState.values()) {
+            assertEquals(state.name, expected.getValue(state), state.playStatus)
+        }
+    }
+
+    /**
+     * 沿合法路径走到目标状态的状态机
+     */
+    private fun machineIn(state: PlayerState): PlayerStateMachine {
+        val machine = PlayerStateMachine("test") { }
+        for (step in ROUTES.getValue(state)) {
+            assertTrue("route to $state", machine.moveTo(step))
+        }
+        assertEquals(state, machine.state)
+        return machine
+    }
+
+    private fun advance(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+}
@@ -0,0 +1,85 @@
+package com.fencer.hatomsdk
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+
+/**
+ * 重连退避时间，随机数固定后检查上下限
+ */
+class ReconnectPolicyTest {
+
+    /**
+     * nextDouble固定返回value，value取0时没有抖动，接近1时抖动最大
+     */
+    private class FixedRandom(private val value: Double) : Random() {
+        override fun nextBits(bitCount: Int): Int = 0
+
+        override fun nextDouble(): Double = value
+    }
+
+    private val noJitter = FixedRandom(0.0)
+
+    @Test
+    fun delayGrowsExponentiallyUntilMax() {
+        val policy = ReconnectPolicy(initialDelayMs = 1_000L, maxDelayMs = 30_000L, multiplier = 2.0)
+        val expected = listOf(1_000L, 2_000L, 4_000L, 8_000L, 16_000L, 30_000L, 30_000L)
+        assertEquals(expected, (1..7).map { policy.delayFor(it, noJitter) })
+        assertEquals(30_000L, policy.delayFor(Int.MAX_VALUE, noJitter))
+    }
+
+    @Test
+    fun attemptBelowOneUsesInitialDelay() {
+        val policy = ReconnectPolicy(initialDelayMs = 1_500L)
+        assertEquals(1_500L, policy.delayFor(0, noJitter))
+        assertEquals(1_500L, policy.delayFor(-3, noJitter))
+    }
+
+    @Test
+    fun jitterStaysWithinBounds() {
+        val policy = ReconnectPolicy(initialDelayMs = 1_000L, maxDelayMs = 30_000L, jitter = 0.5)
+        for (attempt in 1..8) {
+            val delay = policy.delayFor(attempt, noJitter)
+            val lower = (delay * 0.5).toLong()
+            for (seed in 0 until 200) {
+                val jittered = policy.delayFor(attempt, Random(seed))
+                assertTrue("attempt $attempt: $jittered < $lower", jittered >= lower)
+                assertTrue("attempt $attempt: $jittered > $delay", jittered <= delay)
+            }
+            //nextDouble的上限不含1，抖动最大时接近下限
+            assertTrue(policy.delayFor(attempt, FixedRandom(0.999_999)) - lower <= 1L)
+        }
+    }
+
+    @Test
+    fun jitterActuallySpreadsDelays() {
+        val policy = ReconnectPolicy(initialDelayMs = 10_000L, jitter = 0.5)
+        val delays = (0 until 100).map { policy.delayFor(1, Random(it)) }.toSet()
+        assertTrue(delays.size > 50)
+    }
+
+    @Test
+    fun zeroJitterIsExact() {
+        val policy = ReconnectPolicy(initialDelayMs = 1_000L, jitter = 0.0)
+        for (seed in 0 until 50) {
+            assertEquals(4_000L, policy.delayFor(3, Random(seed)))
+        }
+    }
+
+    @Test
+    fun jitterOutOfRangeIsCoerced() {
+        val full = FixedRandom(0.5)
+        //大于1按1处理，最小为0，不会是负数
+        assertEquals(500L, ReconnectPolicy(initialDelayMs = 1_000L, jitter = 3.0).delayFor(1, full))
+        assertEquals(0L, ReconnectPolicy(initialDelayMs = 1_000L, jitter = 3.0).delayFor(1, FixedRandom(1.0)))
+        //小于0按0处理，不会超过上限
+        assertEquals(1_000L, ReconnectPolicy(initialDelayMs = 1_000L, jitter = -1.0).delayFor(1, full))
+    }
+
+    @Test
+    fun disabledPolicyDoesNotRetry() {
+        assertEquals(0, ReconnectPolicy.DISABLED.maxAttempts)
+    }
+}
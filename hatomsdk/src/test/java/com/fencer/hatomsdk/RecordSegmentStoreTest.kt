@@ -0,0 +1,146 @@
+package com.fencer.hatomsdk
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import com.blankj.utilcode.util.Utils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+
+/**
+ * 录像分段索引和按配额淘汰，索引写在Robolectric的应用目录下
+ */
+@RunWith(RobolectricTestRunner::class)
+class RecordSegmentStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private var quota = 0L
+
+    @Before
+    fun setUp() {
+        val app = ApplicationProvider.getApplicationContext<Application>()
+        Utils.init(app)
+        File(MyUtils.getMoviesDir(app)).mkdirs()
+        quota = RecordSegmentStore.quotaBytes
+        //单例在同一个类的测试之间保留，清掉上一个测试的分段
+        clear()
+    }
+
+    @After
+    fun tearDown() {
+        RecordSegmentStore.quotaBytes = quota
+        clear()
+    }
+
+    @Test
+    fun keepsEverythingWithoutQuota() {
+        RecordSegmentStore.quotaBytes = 0L
+        val files = List(3) { add(0, "camera", endTime = 1_000L * (it + 1), size = 100) }
+        assertEquals(3, RecordSegmentStore.segments().size)
+        assertEquals(300L, RecordSegmentStore.totalBytes())
+        assertTrue(files.all { it.exists() })
+    }
+
+    @Test
+    fun evictsOldestWhenOverQuota() {
+        RecordSegmentStore.quotaBytes = 250L
+        val first = add(0, "camera", endTime = 1_000L, size = 100)
+        val second = add(0, "camera", endTime = 2_000L, size = 100)
+        val third = add(0, "camera", endTime = 3_000L, size = 100)
+        assertEquals(listOf(2_000L, 3_000L), RecordSegmentStore.segments().map { it.endTime })
+        assertEquals(200L, RecordSegmentStore.totalBytes())
+        assertFalse(first.exists())
+        assertTrue(second.exists())
+        assertTrue(third.exists())
+    }
+
+    @Test
+    fun outOfOrderAddStillEvictsEarliestEndTime() {
+        RecordSegmentStore.quotaBytes = 250L
+        //后关闭的分段先转码完成
+        val late = add(0, "camera", endTime = 3_000L, size = 100)
+        val early = add(1, "camera", endTime = 1_000L, size = 100)
+        val middle = add(2, "camera", endTime = 2_000L, size = 100)
+        assertEquals(listOf(2_000L, 3_000L), RecordSegmentStore.segments().map { it.endTime })
+        assertFalse(early.exists())
+        assertTrue(middle.exists())
+        assertTrue(late.exists())
+    }
+
+    @Test
+    fun evictsAsManyAsNeeded() {
+        RecordSegmentStore.quotaBytes = 1_000L
+        val small = List(4) { add(0, "camera", endTime = 1_000L * (it + 1), size = 200) }
+        val large = add(0, "camera", endTime = 10_000L, size = 500)
+        //总共1300，删掉最早的两个后900
+        assertEquals(listOf(3_000L, 4_000L, 10_000L), RecordSegmentStore.segments().map { it.endTime })
+        assertEquals(900L, RecordSegmentStore.totalBytes())
+        assertFalse(small[0].exists())
+        assertFalse(small[1].exists())
+        assertTrue(large.exists())
+    }
+
+    @Test
+    fun keepsNewestSegmentEvenOverQuota() {
+        RecordSegmentStore.quotaBytes = 50L
+        val first = add(0, "camera", endTime = 1_000L, size = 100)
+        assertEquals(1, RecordSegmentStore.segments().size)
+        assertTrue(first.exists())
+
+        val second = add(0, "camera", endTime = 2_000L, size = 100)
+        assertEquals(listOf(2_000L), RecordSegmentStore.segments().map { it.endTime })
+        assertFalse(first.exists())
+        assertTrue(second.exists())
+    }
+
+    @Test
+    fun filtersByWindowAndCamera() {
+        add(0, "camera-a", endTime = 3_000L, size = 10)
+        add(1, "camera-a", endTime = 1_000L, size = 10)
+        add(0, "camera-b", endTime = 2_000L, size = 10)
+        assertEquals(listOf(1_000L, 2_000L, 3_000L), RecordSegmentStore.segments().map { it.endTime })
+        assertEquals(listOf(2_000L, 3_000L), RecordSegmentStore.segments(0).map { it.endTime })
+        assertEquals(listOf(1_000L, 3_000L), RecordSegmentStore.segments(camera = "camera-a").map { it.endTime })
+        assertEquals(listOf(3_000L), RecordSegmentStore.segments(0, "camera-a").map { it.endTime })
+    }
+
+    @Test
+    fun skipsEmptyFilesAndDeletesOnRequest() {
+        val empty = folder.newFile()
+        RecordSegmentStore.add(0, "camera", empty.path, 0L, 1_000L)
+        assertTrue(RecordSegmentStore.segments().isEmpty())
+
+        val file = add(0, "camera", endTime = 2_000L, size = 100)
+        val segment = RecordSegmentStore.segments().single()
+        assertEquals(100L, segment.size)
+        RecordSegmentStore.delete(segment)
+        assertTrue(RecordSegmentStore.segments().isEmpty())
+        assertEquals(0L, RecordSegmentStore.totalBytes())
+        assertFalse(file.exists())
+    }
+
+    /**
+     * 写一个size字节的录像文件并记录到索引
+     */
+    private fun add(window: Int, camera: String, endTime: Long, size: Int): File {
+        val file = folder.newFile()
+        file.writeBytes(ByteArray(size))
+        RecordSegmentStore.add(window, camera, file.path, endTime - 500L, endTime)
+        return file
+    }
+
+    private fun clear() {
+        RecordSegmentStore.segments().forEach { RecordSegmentStore.delete(it) }
+    }
+}
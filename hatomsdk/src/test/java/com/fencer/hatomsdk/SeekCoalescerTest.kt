@@ -0,0 +1,97 @@
+package com.fencer.hatomsdk
+
+import android.os.Looper
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.time.Duration
+
+
+/**
+ * 回放拖动合并，SystemClock由Robolectric的主线程时钟推进
+ */
+@RunWith(RobolectricTestRunner::class)
+class SeekCoalescerTest {
+
+    private val dispatched = ArrayList<Long>()
+
+    private val coalescer = SeekCoalescer { dispatched.add(it) }
+
+    @Test
+    fun firstSeekIsDispatchedImmediately() {
+        assertFalse(coalescer.isSeeking())
+        coalescer.request(1_000L)
+        assertEquals(listOf(1_000L), dispatched)
+        assertTrue(coalescer.isSeeking())
+    }
+
+    @Test
+    fun keepsOnlyLatestPendingSeek() {
+        coalescer.request(1_000L)
+        coalescer.request(2_000L)
+        coalescer.request(3_000L)
+        coalescer.request(4_000L)
+        //拖动执行期间只记录，不下发
+        assertEquals(listOf(1_000L), dispatched)
+
+        coalescer.onSeekFinished()
+        //中间的目标直接丢弃
+        assertEquals(listOf(1_000L, 4_000L), dispatched)
+        assertTrue(coalescer.isSeeking())
+
+        coalescer.onSeekFinished()
+        assertEquals(listOf(1_000L, 4_000L), dispatched)
+        assertFalse(coalescer.isSeeking())
+    }
+
+    @Test
+    fun reportsLatencyFromIssueToFinish() {
+        coalescer.request(1_000L)
+        advance(300L)
+        coalescer.request(2_000L)
+        advance(200L)
+        assertEquals(500L, coalescer.onSeekFinished())
+        //等待中的目标从上一个完成时开始计时
+        advance(150L)
+        assertEquals(150L, coalescer.onSeekFinished())
+        assertEquals(-1L, coalescer.onSeekFinished())
+    }
+
+    @Test
+    fun stuckSeekTimesOutAfterFiveSeconds() {
+        coalescer.request(1_000L)
+        advance(4_999L)
+        coalescer.request(2_000L)
+        assertEquals(listOf(1_000L), dispatched)
+
+        advance(1L)
+        coalescer.request(3_000L)
+        //超时后不再等待回调，直接下发最新的目标
+        assertEquals(listOf(1_000L, 3_000L), dispatched)
+
+        coalescer.onSeekFinished()
+        assertEquals(listOf(1_000L, 3_000L), dispatched)
+        assertFalse(coalescer.isSeeking())
+    }
+
+    @Test
+    fun resetDropsInFlightAndPendingSeeks() {
+        coalescer.request(1_000L)
+        coalescer.request(2_000L)
+        coalescer.reset()
+        assertFalse(coalescer.isSeeking())
+        assertEquals(-1L, coalescer.onSeekFinished())
+        assertEquals(listOf(1_000L), dispatched)
+
+        coalescer.request(3_000L)
+        assertEquals(listOf(1_000L, 3_000L), dispatched)
+    }
+
+    private fun advance(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+}
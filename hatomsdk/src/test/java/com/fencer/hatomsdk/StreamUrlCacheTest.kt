@@ -0,0 +1,372 @@
+package com.fencer.hatomsdk
+
+import android.os.Looper
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.io.BufferedInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.URL
+import java.net.URLDecoder
+import java.net.URLEncoder
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+
+/**
+ * 取流地址缓存，解析器通过HTTP请求本地的模拟取流接口
+ */
+@RunWith(RobolectricTestRunner::class)
+class StreamUrlCacheTest {
+
+    companion object {
+        private const val TTL_MS = 10_000L
+
+        private const val TIMEOUT_MS = 5_000L
+    }
+
+    private lateinit var server: FakeStreamServer
+
+    private lateinit var cache: StreamUrlCache
+
+    @Before
+    fun setUp() {
+        server = FakeStreamServer(TTL_MS)
+        cache = StreamUrlCache(HttpStreamUrlResolver(server.baseUrl))
+        //有效期10秒：8秒后提前刷新，9秒后不再使用
+        cache.expiryMarginMs = 1_000L
+        cache.refreshAheadRatio = 0.8f
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+    }
+
+    @Test
+    fun cachedUrlIsReusedUntilExpiry() {
+        val request = StreamRequest("camera-1")
+        val first = resolve(request)
+        assertEquals(1, server.singleRequests.get())
+
+        advance(5_000L)
+        var cached: String? = null
+        cache.get(request) { _, url -> cached = url }
+        //缓存命中时在当前线程直接回调
+        assertEquals(first, cached)
+        assertEquals(1, server.singleRequests.get())
+
+        advance(4_500L)
+        assertNull(cache.getCached(request))
+        val second = resolve(request)
+        assertNotEquals(first, second)
+        assertEquals(2, server.singleRequests.get())
+    }
+
+    @Test
+    fun refreshesAheadOfExpiryInBackground() {
+        val request = StreamRequest("camera-1")
+        val first = resolve(request)
+
+        advance(8_500L)
+        var cached: String? = null
+        cache.get(request) { _, url -> cached = url }
+        //快过期的地址仍然直接使用，同时在后台刷新
+        assertEquals(first, cached)
+        idleUntil { cache.getCached(request) != first }
+        assertEquals(2, server.singleRequests.get())
+        assertNotNull(cache.getCached(request))
+    }
+
+    @Test
+    fun concurrentCallersShareOneFetch() {
+        val request = StreamRequest("camera-1")
+        val callers = 8
+        val gate = CountDownLatch(1)
+        server.gate = gate
+        val urls = CopyOnWriteArrayList<String?>()
+        val start = CountDownLatch(1)
+        val threads = List(callers) {
+            Thread {
+                start.await()
+                cache.get(request) { _, url -> urls.add(url) }
+            }.apply { start() }
+        }
+        start.countDown()
+        threads.forEach { it.join(TIMEOUT_MS) }
+        //所有调用都在第一次解析返回之前发起
+        gate.countDown()
+        idleUntil { urls.size == callers }
+        assertEquals(1, server.singleRequests.get())
+        assertEquals(1, urls.distinct().size)
+        assertNotNull(urls[0])
+    }
+
+    @Test
+    fun invalidateForcesNewFetch() {
+        val request = StreamRequest("camera-1")
+        val first = resolve(request)
+        cache.invalidate(request)
+        assertNull(cache.getCached(request))
+        val second = resolve(request)
+        assertNotEquals(first, second)
+        assertEquals(2, server.singleRequests.get())
+    }
+
+    @Test
+    fun invalidateDuringFetchDropsResult() {
+        val request = StreamRequest("camera-1")
+        val gate = CountDownLatch(1)
+        server.gate = gate
+        var resolved: String? = null
+        var called = false
+        cache.get(request) { _, url ->
+            resolved = url
+            called = true
+        }
+        idleUntil { server.singleRequests.get() == 1 }
+        cache.invalidate(request)
+        gate.countDown()
+        idleUntil { called }
+        //等待中的调用方仍然拿到地址，但地址不缓存
+        assertNotNull(resolved)
+        assertNull(cache.getCached(request))
+    }
+
+    @Test
+    fun prefetchBatchesMissingRequests() {
+        val page = List(4) { StreamRequest("camera-$it") }
+        cache.prefetch(page)
+        idleUntil { page.all { cache.getCached(it) != null } }
+        assertEquals(listOf(4), server.batchSizes)
+        assertEquals(0, server.singleRequests.get())
+
+        //已经缓存的跳过，只解析新的两个
+        val next = listOf(page[0], page[1], StreamRequest("camera-4"), StreamRequest("camera-5"))
+        cache.prefetch(next)
+        idleUntil { next.all { cache.getCached(it) != null } }
+        assertEquals(listOf(4, 2), server.batchSizes)
+
+        //预取的地址直接命中，不再请求
+        var cached: String? = null
+        cache.get(page[2]) { _, url -> cached = url }
+        assertNotNull(cached)
+        assertEquals(0, server.singleRequests.get())
+    }
+
+    @Test
+    fun prefetchSkipsInFlightRequests() {
+        val request = StreamRequest("camera-1")
+        val gate = CountDownLatch(1)
+        server.gate = gate
+        cache.get(request) { _, _ -> }
+        idleUntil { server.singleRequests.get() == 1 }
+        cache.prefetch(listOf(request, StreamRequest("camera-2"), StreamRequest("camera-3")))
+        gate.countDown()
+        idleUntil { cache.getCached(StreamRequest("camera-3")) != null && cache.getCached(request) != null }
+        assertEquals(listOf(2), server.batchSizes)
+        assertEquals(1, server.singleRequests.get())
+    }
+
+    /**
+     * 解析并等待主线程回调
+     */
+    private fun resolve(request: StreamRequest): String? {
+        var resolved: String? = null
+        var called = false
+        cache.get(request) { _, url ->
+            resolved = url
+            called = true
+        }
+        idleUntil { called }
+        return resolved
+    }
+
+    /**
+     * 推进Robolectric的时钟，SystemClock.elapsedRealtime()跟着变化
+     */
+    private fun advance(millis: Long) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis))
+    }
+
+    /**
+     * 解析在后台线程完成后回调投递到主线程，循环执行主线程的消息直到条件满足
+     */
+    private fun idleUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + TIMEOUT_MS
+        while (!condition()) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+            shadowOf(Looper.getMainLooper()).idle()
+        }
+    }
+}
+
+
+/**
+ * 模拟平台取流接口的本地HTTP服务：
+ * GET /resolve?camera=xxx 返回"地址\t有效期"，POST /batch 请求体每行一个监控点，按行返回结果。
+ * 每次返回的地址都不同，可以区分是否重新解析过。
+ * 单元测试按android.jar编译，没有com.sun.net.httpserver，直接用ServerSocket实现，每个连接只处理一个请求
+ */
+private class FakeStreamServer(private val ttlMs: Long) : AutoCloseable {
+
+    private val serverSocket = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+
+    private val executor: ExecutorService = Executors.newCachedThreadPool()
+
+    private val serial = AtomicInteger()
+
+    val singleRequests = AtomicInteger()
+
+    val batchSizes = CopyOnWriteArrayList<Int>()
+
+    /*不为null时请求等到countDown后才返回*/
+    @Volatile
+    var gate: CountDownLatch? = null
+
+    val baseUrl: String
+        get() = "http://127.0.0.1:${serverSocket.localPort}"
+
+    init {
+        executor.execute {
+            while (!serverSocket.isClosed) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (e: IOException) {
+                    break
+                }
+                executor.execute { socket.use { handle(it) } }
+            }
+        }
+    }
+
+    private fun handle(socket: Socket) {
+        val input = BufferedInputStream(socket.getInputStream())
+        val requestLine = readLine(input)
+        var contentLength = 0
+        while (true) {
+            val header = readLine(input)
+            if (header.isEmpty()) {
+                break
+            }
+            if (header.startsWith("Content-Length:", true)) {
+                contentLength = header.substringAfter(':').trim().toInt()
+            }
+        }
+        val body = ByteArray(contentLength)
+        var read = 0
+        while (read < contentLength) {
+            val n = input.read(body, read, contentLength - read)
+            if (n < 0) {
+                break
+            }
+            read += n
+        }
+        val path = requestLine.split(' ')[1]
+        val response = if (path.startsWith("/resolve")) {
+            singleRequests.incrementAndGet()
+            await()
+            line(URLDecoder.decode(path.substringAfter("camera="), "UTF-8"))
+        } else {
+            val cameras = String(body).lines().filter { it.isNotEmpty() }
+            batchSizes.add(cameras.size)
+            await()
+            cameras.joinToString("\n") { line(it) }
+        }
+        val bytes = response.toByteArray()
+        val out = socket.getOutputStream()
+        out.write("HTTP/1.1 200 OK\r\nContent-Length: ${bytes.size}\r\nConnection: close\r\n\r\n".toByteArray())
+        out.write(bytes)
+        out.flush()
+    }
+
+    private fun readLine(input: InputStream): String {
+        val line = StringBuilder()
+        while (true) {
+            val c = input.read()
+            if (c < 0 || c == '\n'.code) {
+                break
+            }
+            if (c != '\r'.code) {
+                line.append(c.toChar())
+            }
+        }
+        return line.toString()
+    }
+
+    private fun await() {
+        gate?.await(5, TimeUnit.SECONDS)
+    }
+
+    private fun line(camera: String): String {
+        return "rtsp://127.0.0.1:554/openUrl/$camera-${serial.incrementAndGet()}\t$ttlMs"
+    }
+
+    override fun close() {
+        gate?.countDown()
+        serverSocket.close()
+        executor.shutdownNow()
+    }
+}
+
+
+/**
+ * 按HTTP接口解析取流地址，和调用方对接平台时的实现方式相同
+ */
+private class HttpStreamUrlResolver(private val baseUrl: String) : StreamUrlResolver {
+
+    override fun resolve(request: StreamRequest): ResolvedStreamUrl {
+        val connection = open("$baseUrl/resolve?camera=${URLEncoder.encode(request.cameraId, "UTF-8")}")
+        try {
+            return parse(connection.inputStream.bufferedReader().readText().trim())
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    override fun resolveAll(requests: List<StreamRequest>): List<ResolvedStreamUrl?> {
+        val connection = open("$baseUrl/batch")
+        try {
+            connection.requestMethod = "POST"
+            connection.doOutput = true
+            connection.outputStream.use { out ->
+                out.write(requests.joinToString("\n") { it.cameraId }.toByteArray())
+            }
+            val lines = connection.inputStream.bufferedReader().readLines()
+            return requests.indices.map { lines.getOrNull(it)?.let { line -> parse(line) } }
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    private fun open(url: String): HttpURLConnection {
+        return (URL(url).openConnection() as HttpURLConnection).apply {
+            connectTimeout = 5_000
+            readTimeout = 10_000
+        }
+    }
+
+    private fun parse(line: String): ResolvedStreamUrl {
+        val fields = line.split('\t')
+        return ResolvedStreamUrl(fields[0], fields[1].toLong())
+    }
+}